@@ -0,0 +1,77 @@
+package org.lambdaunbound.taskdispatcher.benchmarks;
+
+import org.lambdaunbound.taskdispatcher.Job;
+
+/**
+ * A Job that does little or no work of its own, so that benchmarks of
+ * dispatching it measure the overhead of the dispatcher rather than the job.
+ *
+ * @author gg32
+ */
+public class BenchJob implements Job {
+
+    /**
+     * The kinds of work a BenchJob may do.
+     */
+    public enum Kind {
+        /**
+         * Nothing at all.
+         */
+        NOOP,
+        /**
+         * A few microseconds of arithmetic.
+         */
+        CPU,
+        /**
+         * Nothing, but carries a 64KB payload there and back.
+         */
+        PAYLOAD
+    }
+
+    private static final int PAYLOAD_SIZE = 1<<16;
+    private static final int CPU_ROUNDS = 1000;
+
+    private final String id;
+    private final Kind kind;
+    private byte[] payload;
+    private long result;
+
+    /**
+     * Create a job.
+     * @param id The ID of the job, which must be unique within a generation.
+     * @param kind The work the job does.
+     */
+    public BenchJob(String id, Kind kind){
+        this.id = id;
+        this.kind = kind;
+        if(kind==Kind.PAYLOAD)
+            payload = new byte[PAYLOAD_SIZE];
+    }
+
+    @Override
+    public String getID(){
+        return id;
+    }
+
+    @Override
+    public void run(){
+        if(kind==Kind.CPU){
+            long x = id.hashCode();
+            for(int i=0;i<CPU_ROUNDS;i++)
+                x = x*6364136223846793005L+1442695040888963407L;
+            result = x;
+        }
+        else if(kind==Kind.PAYLOAD){
+            payload[0]++;
+        }
+    }
+
+    /**
+     * Get the result of the job, so that its work can not be optimised away.
+     * @return The result.
+     */
+    public long getResult(){
+        return result;
+    }
+
+}
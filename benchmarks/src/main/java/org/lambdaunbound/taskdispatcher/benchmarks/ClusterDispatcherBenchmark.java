@@ -0,0 +1,115 @@
+package org.lambdaunbound.taskdispatcher.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.lambdaunbound.taskdispatcher.cluster.ClusterDispatcher;
+import org.lambdaunbound.taskdispatcher.cluster.ClusterStub;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time taken for a ClusterDispatcher to run a generation of jobs
+ * that do next to nothing on ClusterStubs connected over loopback, and so its
+ * overhead per job including serialisation and the network. The stubs are run
+ * in the same VM as the dispatcher. The jobs counter gives the throughput in
+ * jobs per second, alongside generations per second.
+ *
+ * @author gg32
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ClusterDispatcherBenchmark {
+
+    private static final long CONNECT_TIMEOUT = 30000;
+
+    @Param({"1000", "10000"})
+    public int jobs;
+
+    @Param({"NOOP", "CPU", "PAYLOAD"})
+    public BenchJob.Kind kind;
+
+    @Param({"2"})
+    public int stubs;
+
+    private LoopbackDispatcher dispatcher;
+    private Thread[] stubThreads;
+
+    /**
+     * A ClusterDispatcher that can tell when its stubs have connected.
+     */
+    private static class LoopbackDispatcher extends ClusterDispatcher<BenchJob> {
+        int runners(){
+            return taskRunners.size();
+        }
+    }
+
+    /**
+     * Counts the jobs finished, so that JMH reports them per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long jobs;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        dispatcher = new LoopbackDispatcher();
+        dispatcher.setUp();
+        final int port = dispatcher.getPort();
+        stubThreads = new Thread[stubs];
+        for(int i=0;i<stubs;i++){
+            stubThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run(){
+                    ClusterStub stub = new ClusterStub();
+                    if(stub.setSocket("localhost", port))
+                        stub.start();
+                }
+            }, "stub-"+i);
+            stubThreads[i].setDaemon(true);
+            stubThreads[i].start();
+        }
+        long deadline = System.currentTimeMillis()+CONNECT_TIMEOUT;
+        while(dispatcher.runners()<stubs){
+            if(System.currentTimeMillis()>deadline)
+                throw new IllegalStateException("Only " + dispatcher.runners() + " of " + stubs + " stubs connected");
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        dispatcher.end();
+        for(Thread t : stubThreads)
+            t.join(5000);
+    }
+
+    @Benchmark
+    public int generation(Counters counters){
+        for(int i=0;i<jobs;i++)
+            dispatcher.addJob(new BenchJob("j"+i, kind));
+        if(dispatcher.start())
+            throw new IllegalStateException(dispatcher.getError());
+        int finished = dispatcher.getFinishedJobs().size();
+        dispatcher.newGeneration();
+        counters.jobs += finished;
+        return finished;
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.lambdaunbound.taskdispatcher.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.lambdaunbound.taskdispatcher.threaded.ThreadedDispatcher;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time taken for a ThreadedDispatcher to run a generation of jobs
+ * that do next to nothing, and so its overhead per job. The jobs counter gives
+ * the throughput in jobs per second, alongside generations per second.
+ *
+ * @author gg32
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ThreadedDispatcherBenchmark {
+
+    @Param({"1000", "10000"})
+    public int jobs;
+
+    @Param({"NOOP", "CPU"})
+    public BenchJob.Kind kind;
+
+    private ThreadedDispatcher<BenchJob> dispatcher;
+
+    /**
+     * Counts the jobs finished, so that JMH reports them per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long jobs;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        dispatcher = new ThreadedDispatcher<>();
+        dispatcher.setUp();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Benchmark
+    public int generation(Counters counters){
+        for(int i=0;i<jobs;i++)
+            dispatcher.addJob(new BenchJob("j"+i, kind));
+        if(dispatcher.start())
+            throw new IllegalStateException(dispatcher.getError());
+        int finished = dispatcher.getFinishedJobs().size();
+        dispatcher.newGeneration();
+        counters.jobs += finished;
+        return finished;
+    }
+
+}
@@ -1,11 +1,25 @@
 package org.lambdaunbound.taskdispatcher;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Dispatches Jobs to TaskRunners.
@@ -18,9 +32,6 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * @param <J> The type of job to be distributed
  */
 public abstract class AbstractTaskDispatcher <R extends AbstractTaskRunner<J>, J extends Job> {
-    //TODO Error recovery from failed jobs.
-    //TODO Once all jobs have been issued, reissue those that are not yet
-    //completed to other machines
 
     /**
      * A thread-safe list of the task runners used by this dispatcher.
@@ -28,23 +39,167 @@ public abstract class AbstractTaskDispatcher <R extends AbstractTaskRunner<J>, J
      */
     protected List<R> taskRunners = new CopyOnWriteArrayList<>();
     
-    private Thread mainThread;
-    private HashMap<String, J> jobs = new HashMap<>();
-    private HashMap<String, J> finishedJobs;
-    private Queue<String> progressQueue = new ConcurrentLinkedQueue<>();
-    protected TaskProgress progress = null;
+    private Map<String, J> finishedJobs;
+    private Map<String, J> resultStore;
+    protected volatile TaskProgress progress = null;
     private int generation = 0;
-    private int jobNum=0;
-    private boolean failed;
+    /**
+     * The counts of jobs of the current generation.
+     */
+    private volatile ProgressCounters counters = new ProgressCounters(0, 0);
+    private long progressInterval = 500;
+    private final DispatchMetrics metrics = new DispatchMetrics(this);
+    private volatile boolean failed;
     private String error;
-    
+
     /**
-     * Create a new TaskDispatcher.
-     * This must be called from the thread that will call the start function.
+     * Notifications from the TaskRunners, handled in order on the dispatching
+     * thread. Waiting on this queue replaces any polling of the runners.
      */
-    public AbstractTaskDispatcher(){
-        mainThread = Thread.currentThread();
-    }
+    private final BlockingQueue<RunnerEvent> events = new LinkedBlockingQueue<>();
+    /**
+     * Jobs that have been added but not yet taken up by the dispatching thread.
+     * This is the only collection of jobs that other threads may add to.
+     */
+    private final Queue<J> submitted = new ConcurrentLinkedQueue<>();
+    /**
+     * Jobs waiting to be issued, in the order they should be issued. Only used
+     * by the dispatching thread.
+     * @see PrioritisedJob
+     */
+    private final PriorityQueue<QueuedJob<J>> pending = new PriorityQueue<>();
+    /**
+     * The order in which jobs were queued, used to keep jobs of equal priority
+     * in the order they were added.
+     */
+    private long queued = 0;
+    /**
+     * The issued but unfinished jobs, in the order they were issued. Only used
+     * by the dispatching thread.
+     */
+    private final Map<String, Issued> running = new LinkedHashMap<>();
+    /**
+     * Jobs that are waiting for the jobs they depend upon to finish, by the ID
+     * of each of those jobs. Only used by the dispatching thread.
+     * @see DependentJob
+     */
+    private final Map<String, List<Waiting>> dependents = new HashMap<>();
+    /**
+     * The number of jobs waiting for the jobs they depend upon.
+     */
+    private int waiting = 0;
+    /**
+     * The runners still running a copy of a job that has already been finished
+     * by another runner. A job is not issued again to a runner while it is
+     * still running an old copy, so that the two can not be confused.
+     */
+    private final Map<String, List<R>> superseded = new HashMap<>();
+    /**
+     * The runners that have been given jobs since they were last flushed.
+     */
+    private final List<R> unflushed = new ArrayList<>();
+    /**
+     * The live runners with space for more jobs, by how much space they have.
+     */
+    private final CapacityIndex<R> capacity = new CapacityIndex<>();
+    private boolean speculative = false;
+    /**
+     * When the next running job will have run for longer than the average,
+     * so may be speculated upon, as given by System.nanoTime(), or
+     * Long.MAX_VALUE if there is none.
+     */
+    private long speculateAt = Long.MAX_VALUE;
+    private int prefetch = 0;
+    private boolean adaptive = true;
+    private long inlineThreshold = 0;
+    private long turnaroundTotal = 0;
+    private long turnarounds = 0;
+    private RetryPolicy retryPolicy = new RetryPolicy(1);
+    /**
+     * The number of times each unfinished job has failed.
+     */
+    private final Map<String, Integer> failures = new HashMap<>();
+    /**
+     * The runner each unfinished job last failed on, which it is kept away
+     * from when retried if possible.
+     */
+    private final Map<String, R> failedOn = new HashMap<>();
+    /**
+     * Failed jobs waiting out their backoff before being queued again, soonest
+     * first.
+     */
+    private final PriorityQueue<Retry> retries = new PriorityQueue<>();
+    /**
+     * When each issued job with a timeout will have run for too long, soonest
+     * first. Entries are left until they are due even if the job has finished,
+     * and are then skipped.
+     */
+    private final PriorityQueue<Timeout> timeouts = new PriorityQueue<>();
+    /**
+     * The jobs of this generation that have failed on every attempt, or that
+     * depend upon such jobs, and why.
+     */
+    private final Map<String, String> lostJobs = new LinkedHashMap<>();
+    /**
+     * Futures for the submitted jobs of this generation that have not yet
+     * finished.
+     */
+    private final Map<String, JobFuture<J>> futures = new ConcurrentHashMap<>();
+    private final List<JobListener<? super J>> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Whether the dispatching thread is running, and so needs to be woken up
+     * when a job is added.
+     */
+    private volatile boolean dispatching;
+    /**
+     * Whether the dispatching thread should keep running once it has run out
+     * of jobs.
+     */
+    private volatile boolean continuous;
+    private Thread continuousThread;
+    /**
+     * Whether finished jobs are kept for getFinishedJobs. Only used by the
+     * dispatching thread.
+     */
+    private boolean retainFinished = true;
+    private boolean keepFinished = true;
+    /**
+     * The jobs still to be taken from the source given to start, or null if
+     * there is none. Only used by the dispatching thread.
+     */
+    private Iterator<? extends J> source;
+    private int lookahead = 0;
+    private CheckpointLog<J> checkpoint;
+    /**
+     * The checkpoint log of the generation being run, or null if it is not
+     * being logged. Only used by the dispatching thread.
+     */
+    private CheckpointLog<J> logging;
+    /**
+     * The IDs of the jobs taken up while resuming a generation, so that jobs
+     * added again are skipped, or null if not resuming. Only used by the
+     * dispatching thread.
+     */
+    private Set<String> resumed;
+    /**
+     * The generation that jobs are added to when pipelined, or null if not
+     * pipelined.
+     */
+    private volatile Generation<J> open;
+    /**
+     * The pipelined generations that are not yet done, oldest first.
+     */
+    private final Queue<Generation<J>> generations = new ConcurrentLinkedQueue<>();
+    /**
+     * The generation of each unfinished job when pipelined. Only used by the
+     * dispatching thread.
+     */
+    private final Map<String, Generation<J>> owners = new HashMap<>();
+    /**
+     * Held while adding a job to the open generation, so that it can not be
+     * closed in between.
+     */
+    private final Object pipelineLock = new Object();
     
     /**
      * Publish a message to the TaskProgress if one has been attached.
@@ -69,28 +224,445 @@ public abstract class AbstractTaskDispatcher <R extends AbstractTaskRunner<J>, J
         progress = tp;
     }
     
+    /**
+     * Get the TaskProgress being updated of the progress of this dispatcher.
+     * @return The TaskProgress, or null if none has been registered.
+     */
+    public TaskProgress getTaskProgress(){
+        return progress;
+    }
+    
+    /**
+     * Set how often the TaskProgress is updated while jobs are being run. It
+     * is ticked once for each job completed since the last update, the last
+     * tick carrying a summary of the generation so far.
+     * @param millis The milliseconds between updates, 500 by default.
+     */
+    public void setProgressInterval(long millis){
+        progressInterval = millis;
+    }
+    
+    /**
+     * Get the counts of jobs of the current generation. These may be read at
+     * any time, from any thread.
+     * @return The counters for the current generation.
+     */
+    public ProgressCounters getProgress(){
+        return counters;
+    }
+    
+    /**
+     * Get the timings of each stage of the dispatch of the jobs of the current
+     * generation.
+     * @return The metrics of this dispatcher.
+     */
+    public DispatchMetrics getMetrics(){
+        return metrics;
+    }
+    
+    /**
+     * Register a JobListener to be given each job as soon as it has finished.
+     * @param listener The listener.
+     */
+    public void addJobListener(JobListener<? super J> listener){
+        listeners.add(listener);
+    }
+    
+    /**
+     * Set the number of jobs each runner may be given beyond its number of
+     * processing elements, so that it has work queued locally for when its
+     * current jobs finish. Once there are no more jobs waiting to be issued,
+     * runners with idle processing elements steal the queued jobs that other
+     * runners have not yet started.
+     * @param jobs The number of extra jobs per runner, 0 by default.
+     */
+    public void setPrefetch(int jobs){
+        prefetch = jobs;
+    }
+    
+    /**
+     * Set whether each runner may be given as many extra jobs as it asks for
+     * in {@link AbstractTaskRunner#getBacklog()}, when that is more than the
+     * prefetch, so that a runner that takes a while to be sent jobs has enough
+     * queued that its processing elements need never wait for them. As with
+     * prefetching, jobs queued on one runner are stolen back by others once
+     * there are no more jobs waiting to be issued. On by default.
+     * @param adapt Whether to adapt the number of jobs each runner is given.
+     * @see #setPrefetch(int)
+     */
+    public void setAdaptivePrefetch(boolean adapt){
+        adaptive = adapt;
+    }
+    
+    /**
+     * Set the estimated cost below which a job is run by the dispatching
+     * thread itself, rather than being issued to a runner, as handing it to a
+     * runner would take longer than running it. Only PrioritisedJobs that give
+     * an estimated cost are run this way, in the same units as their estimates;
+     * if these are nanoseconds then the turnaround less the execution time
+     * given by the DispatchMetrics is a fair threshold. Jobs run this way are
+     * not timed out. Off by default.
+     * @param cost The estimated cost below which jobs are run inline, or 0 to
+     * issue every job to a runner.
+     * @see PrioritisedJob#getEstimatedCost()
+     */
+    public void setInlineThreshold(long cost){
+        inlineThreshold = cost;
+    }
+    
+    /**
+     * Whether a job should be run by the dispatching thread itself, rather
+     * than being issued to a runner. By default this is so for those whose
+     * estimated cost is below the inline threshold.
+     * @param job The job.
+     * @param cost The estimated cost of the job, or 0 if it is unknown.
+     * @return True if the job should be run inline.
+     * @see #setInlineThreshold(long)
+     */
+    protected boolean runsInline(J job, long cost){
+        return cost>0&&cost<inlineThreshold;
+    }
+    
+    /**
+     * Set whether jobs should be speculatively re-executed. Once there are no
+     * more jobs waiting to be issued, runners with free space are given a copy
+     * of the longest running unfinished jobs, and whichever copy finishes first
+     * is taken. Only jobs that have been running for longer than the average
+     * job are copied, and only between runners that run copies of the jobs
+     * given to them.
+     * @param speculate Whether to speculatively re-execute jobs.
+     * @see AbstractTaskRunner#copiesJobs()
+     */
+    public void setSpeculativeExecution(boolean speculate){
+        speculative = speculate;
+    }
+    
+    /**
+     * Set how many times failed jobs are run again before they are given up
+     * on, and how long to wait in between. By default failed jobs are not
+     * run again.
+     * @param policy The policy for retrying failed jobs.
+     */
+    public void setRetryPolicy(RetryPolicy policy){
+        retryPolicy = policy;
+    }
+    
+    /**
+     * Set whether start should keep every finished job for getFinishedJobs.
+     * If not, each finished job is only passed to any JobListeners, such as a
+     * JobReducer, and submitted futures, and may then be collected, so that
+     * generations of more jobs than would fit in memory at once may be run.
+     * Jobs are kept by default.
+     * @param keep Whether to keep finished jobs.
+     * @see JobReducer
+     */
+    public void setRetainFinishedJobs(boolean keep){
+        keepFinished = keep;
+    }
+    
+    /**
+     * Set the map that finished jobs are kept in for getResults, such as a
+     * DiskResultStore, in place of a new HashMap each generation. The map is
+     * cleared at the start of each generation.
+     * @param store The map to keep finished jobs in, or null for a HashMap.
+     * @see DiskResultStore
+     */
+    public void setResultStore(Map<String, J> store){
+        resultStore = store;
+    }
+    
+    /**
+     * Set the log that the progress of each generation run by start is kept
+     * in, so that it may be resumed by another dispatcher should this one die.
+     * The log is emptied by start and by newGeneration. It is not used when
+     * running continuously.
+     * @param log The log, or null for none.
+     * @see #resume()
+     */
+    public void setCheckpointLog(CheckpointLog<J> log){
+        checkpoint = log;
+    }
+    
     /**
      * Starts issuing the jobs that have been added to the dispatcher.
      * Jobs are sent evenly across all the runners that this dispatcher is
      * using. This method will return once all jobs have been completed.
      * Or if there has been a problem running one of the Jobs.
-     * @return Returns true if there has been a failure.
+     * Finished jobs are passed to any JobListeners and submitted futures as
+     * they complete, before this method returns.
+     * @return Returns true if there has been a failure, including if any jobs
+     * have been lost.
+     * @see #getLostJobs()
      */
     public boolean start(){
-        finishedJobs = new HashMap<>(jobs.size());
-        issueJobs();
-        receiveAll();
+        if(continuousThread!=null)
+            throw new IllegalStateException("The dispatcher is running continuously");
+        if(checkpoint!=null)
+            checkpoint.clear();
+        return run(false);
+    }
+    
+    /**
+     * Resumes the generation kept in the checkpoint log, such as one started
+     * by a dispatcher that has since died. The jobs that finished are passed
+     * to any JobListeners and submitted futures, and kept for getFinishedJobs,
+     * as if they had just finished, and only the jobs that had not finished
+     * are issued. Jobs that were lost are run again. Any jobs that have been
+     * added to the dispatcher are issued along with them, except for those
+     * with the ID of a job in the log, so the jobs of the generation may
+     * simply be added again before resuming. Otherwise this is the same as
+     * start, and the generation goes on being logged.
+     * @return Returns true if there has been a failure, including if any jobs
+     * have been lost.
+     * @see #setCheckpointLog(CheckpointLog)
+     */
+    public boolean resume(){
+        if(continuousThread!=null)
+            throw new IllegalStateException("The dispatcher is running continuously");
+        if(checkpoint==null)
+            throw new IllegalStateException("There is no checkpoint log to resume from");
+        return run(true);
+    }
+    
+    /**
+     * Resumes the generation kept in the checkpoint log, along with jobs taken
+     * from a source as with start. Jobs from the source with the ID of a job
+     * in the log are skipped, so the source may begin again from its first job.
+     * @param jobs The source of jobs to execute.
+     * @return Returns true if there has been a failure, including if any jobs
+     * have been lost or the source has thrown an exception.
+     * @see #resume()
+     * @see #start(Iterator)
+     */
+    public boolean resume(Iterator<? extends J> jobs){
+        if(continuousThread!=null)
+            throw new IllegalStateException("The dispatcher is running continuously");
+        source = jobs;
+        try{
+            return resume();
+        }
+        finally{
+            source = null;
+        }
+    }
+    
+    /**
+     * Run a generation to completion.
+     * @param resuming Whether to begin from the jobs in the checkpoint log.
+     * @return True if there has been a failure.
+     */
+    private boolean run(boolean resuming){
+        if(resultStore!=null&&keepFinished){
+            resultStore.clear();
+            finishedJobs = resultStore;
+        }
+        else{
+            finishedJobs = new HashMap<>(keepFinished ? submitted.size() : 0);
+        }
+        retainFinished = keepFinished;
+        reset();
+        logging = checkpoint;
+        try{
+            if(resuming)
+                recover();
+            dispatch();
+        }
+        finally{
+            logging = null;
+            resumed = null;
+        }
+        return failed;
+    }
+    
+    /**
+     * Take up the jobs in the checkpoint log, finishing those that finished
+     * and queueing the rest.
+     */
+    private void recover(){
+        resumed = new HashSet<>();
+        try{
+            logging.replay(new CheckpointLog.Replay<J>() {
+                @Override
+                public void finished(J job){
+                    resumed.add(job.getID());
+                    counters.added();
+                    counters.completed();
+                    finishJob(job);
+                }
+                
+                @Override
+                public void added(J job){
+                    resumed.add(job.getID());
+                    queue(job);
+                }
+            });
+        }
+        catch(IllegalStateException e){
+            checkpointFailed(e);
+        }
+    }
+    
+    /**
+     * Starts issuing jobs taken from a source, along with any that have been
+     * added to the dispatcher. Jobs are only taken from the source as runners
+     * have space for them, plus the lookahead, so the first jobs are issued
+     * before later ones have been created, and only a bounded number of jobs
+     * is held at once. If finished jobs are not retained then a generation may
+     * be larger than would fit in memory. This method returns once the source
+     * has run out and all jobs have been completed, or there has been a failure.
+     * As jobs are only ordered once they have been taken from the source, a
+     * larger lookahead lets PrioritisedJobs be ordered over more jobs.
+     * @param jobs The source of jobs to execute.
+     * @return Returns true if there has been a failure, including if any jobs
+     * have been lost or the source has thrown an exception.
+     * @see #setSourceLookahead(int)
+     * @see #setRetainFinishedJobs(boolean)
+     */
+    public boolean start(Iterator<? extends J> jobs){
+        if(continuousThread!=null)
+            throw new IllegalStateException("The dispatcher is running continuously");
+        source = jobs;
+        try{
+            return start();
+        }
+        finally{
+            source = null;
+        }
+    }
+    
+    /**
+     * Set how many jobs are taken from the source given to start beyond those
+     * that the runners have space for.
+     * @param jobs The number of extra jobs, 0 by default.
+     * @see #start(Iterator)
+     */
+    public void setSourceLookahead(int jobs){
+        lookahead = jobs;
+    }
+    
+    /**
+     * Start issuing jobs continuously on a separate dispatching thread. Jobs
+     * may then be added from any thread at any time, and are issued as soon as
+     * a runner has space for them, rather than a generation at a time.
+     * Finished jobs are not kept for getFinishedJobs in this mode, they are
+     * only passed to any JobListeners and submitted futures.
+     * @see #stopContinuous()
+     */
+    public synchronized void startContinuous(){
+        if(continuousThread!=null)
+            throw new IllegalStateException("The dispatcher is already running continuously");
+        retainFinished = false;
+        reset();
+        continuous = true;
+        continuousThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "TaskDispatcher");
+        continuousThread.start();
+    }
+    
+    /**
+     * Start issuing jobs continuously, as with startContinuous, but grouping
+     * them into generations. Jobs are added to the current generation, and
+     * newGeneration closes it and begins the next without waiting for its
+     * jobs to finish, so the jobs of the next generation may be issued to
+     * free processing elements while the last of the current one are still
+     * running. The results of each generation are kept separately, in the
+     * Generation got from getGeneration before it was closed.
+     * Jobs are told apart by their IDs alone, so they must be unique across
+     * every generation still running; a job added while another with the same
+     * ID is unfinished is lost. The progress counters and metrics span every
+     * generation in this mode.
+     * @see #getGeneration()
+     * @see #newGeneration()
+     * @see #stopContinuous()
+     */
+    public synchronized void startPipelined(){
+        if(continuousThread!=null)
+            throw new IllegalStateException("The dispatcher is already running continuously");
+        open = new Generation<>(generation, keepFinished);
+        generations.add(open);
+        startContinuous();
+    }
+    
+    /**
+     * Get the generation that jobs are being added to when pipelined.
+     * @return The current generation.
+     * @see #startPipelined()
+     */
+    public Generation<J> getGeneration(){
+        Generation<J> g = open;
+        if(g==null)
+            throw new IllegalStateException("The dispatcher is not pipelined");
+        return g;
+    }
+    
+    /**
+     * Stop dispatching continuously. This will return once every job that has
+     * been added has been completed, or there has been a failure. When
+     * pipelined, the current generation is closed and every generation is
+     * then done.
+     * @return Returns true if there has been a failure.
+     */
+    public synchronized boolean stopContinuous(){
+        if(continuousThread==null)
+            return failed;
+        continuous = false;
+        events.add(new RunnerEvent(RunnerEvent.Kind.SUBMITTED, null, null));
+        boolean interrupted = false;
+        while(continuousThread.isAlive()){
+            try{
+                continuousThread.join();
+            }
+            catch(InterruptedException e){
+                interrupted = true;
+            }
+        }
+        continuousThread = null;
+        open = null;
+        if(interrupted)
+            Thread.currentThread().interrupt();
         return failed;
     }
     
+    /**
+     * Clear any failure of the last run, so that the dispatcher may be used
+     * again.
+     */
+    private void reset(){
+        failed = false;
+        error = null;
+        lostJobs.clear();
+    }
+    
     /**
      * Clears the job list. Should be called after a set a complete generation
-     * has been executed.
+     * has been executed. When pipelined this instead closes the current
+     * generation to new jobs and begins the next, without waiting.
+     * @see #startPipelined()
      */
     public void newGeneration(){
-        jobs.clear();
-        jobNum=0;
+        if(open!=null){
+            synchronized(pipelineLock){
+                Generation<J> closed = open;
+                generation++;
+                open = new Generation<>(generation, keepFinished);
+                generations.add(open);
+                closed.sealed = true;
+            }
+            if(dispatching)
+                events.add(new RunnerEvent(RunnerEvent.Kind.SUBMITTED, null, null));
+            return;
+        }
+        submitted.clear();
+        futures.clear();
+        if(checkpoint!=null)
+            checkpoint.clear();
         generation++;
+        counters = new ProgressCounters(generation, counters.getInFlight());
+        metrics.newGeneration();
     }
     
     /**
@@ -100,168 +672,1205 @@ public abstract class AbstractTaskDispatcher <R extends AbstractTaskRunner<J>, J
     public abstract void end();
     
     /**
-     * Add a job to executed by this task dispatcher.
+     * Add a job to executed by this task dispatcher. This is safe to call from
+     * any thread, and while the dispatcher is running.
      * @param job The job to be executed.
      */
     public void addJob(J job){
     	assert(job != null);
-        jobs.put(job.getID(), job);
+        if(!addToGeneration(job))
+            submitted.add(job);
+        if(dispatching)
+            events.add(new RunnerEvent(RunnerEvent.Kind.SUBMITTED, null, job.getID()));
+    }
+    
+    /**
+     * Add a job to the open generation, if pipelined.
+     * @param job The job.
+     * @return False if not pipelined.
+     */
+    private boolean addToGeneration(J job){
+        if(open==null)
+            return false;
+        synchronized(pipelineLock){
+            if(open==null)
+                return false;
+            open.submitted.add(job);
+            return true;
+        }
+    }
+    
+    /**
+     * Add a job to be executed by this task dispatcher, and get a future that
+     * will hold the job once it has finished. The future is completed as soon
+     * as the job finishes, so may be used from another thread while the
+     * dispatcher is running.
+     * @param job The job to be executed.
+     * @return The future result of the job.
+     */
+    public JobFuture<J> submit(J job){
+        JobFuture<J> future = new JobFuture<>(job.getID(), this);
+        futures.put(job.getID(), future);
+        addJob(job);
+        return future;
+    }
+    
+    /**
+     * Cancel a job that has been added, so that it is not run. If it is
+     * already running then the runners running it are asked to interrupt it,
+     * and any result is discarded, though the runners may not be given other
+     * jobs until it has stopped. Jobs that depend upon it are lost. This is
+     * safe to call from any thread, and does nothing if the job has already
+     * finished, failed or been cancelled.
+     * @param jobID The ID of the job to cancel.
+     * @see JobFuture#cancel(boolean)
+     */
+    public void cancel(String jobID){
+        cancel(jobID, true);
+    }
+    
+    /**
+     * Cancel a job.
+     * @param jobID The ID of the job to cancel.
+     * @param interrupt Whether a running job should be stopped, rather than
+     * left to finish.
+     */
+    void cancel(String jobID, boolean interrupt){
+        events.add(new RunnerEvent(jobID, interrupt));
     }
     
     /**
-     * Returns all the finished jobs.
+     * Returns all the finished jobs of the last call to start. This is empty
+     * if finished jobs are not being retained. If they are being kept in a
+     * result store, they are all read out of it into a new map, so getResults
+     * should be used instead.
      * @return A map of the ID of a job to the job itself.
+     * @see #setRetainFinishedJobs(boolean)
+     * @see #getResults()
      */
     public HashMap<String, J> getFinishedJobs(){
+        if(finishedJobs==null||finishedJobs instanceof HashMap)
+            return (HashMap<String, J>)finishedJobs;
+        return new HashMap<>(finishedJobs);
+    }
+    
+    /**
+     * Returns all the finished jobs of the last call to start, in the map they
+     * are kept in. This is the result store if one has been set, and is
+     * otherwise the same as getFinishedJobs.
+     * @return A map of the ID of a job to the job itself.
+     * @see #setResultStore(Map)
+     */
+    public Map<String, J> getResults(){
         return finishedJobs;
     }
     
+    /**
+     * Get the jobs of the last run that were given up on, either because they
+     * failed on every attempt allowed by the RetryPolicy, or because they
+     * depend upon such a job.
+     * @return A map of the ID of each lost job to the reason it was lost, in
+     * the order they were lost.
+     */
+    public Map<String, String> getLostJobs(){
+        return Collections.unmodifiableMap(lostJobs);
+    }
+    
     /**
      * Runs until either all jobs are finished or there has been an error 
-     * running a job. If there has been no error then the collection of
-     * finished jobs will have been filled.
-     */
-    private void receiveAll(){
-        boolean anyLeft = true;
-        while(!failed && anyLeft){
-            updateProgress();
-            anyLeft = false;
-            for(R cm : taskRunners){
-                if(cm.isAlive()){
-                    if(!cm.jobs.isEmpty()){
-                        anyLeft = true;
-                        break;
-                    }
+     * running a job. Jobs are issued whenever a TaskRunner has space for them,
+     * and the dispatching thread otherwise sleeps until a TaskRunner reports a
+     * change. If there has been no error then the collection of finished jobs
+     * will have been filled.
+     */
+    private void dispatch(){
+        dispatching = true;
+        boolean generational = !continuous;
+        ProgressSampler sampler = null;
+        if(progress!=null&&progressInterval>0)
+            sampler = new ProgressSampler(progress);
+        capacity.clear();
+        for(R runner : taskRunners)
+            updateCapacity(runner);
+        //Jobs may have been cancelled before the run, so must not be issued
+        RunnerEvent event;
+        while((event = events.poll())!=null)
+            handleEvent(event);
+        while(!failed){
+            acceptSubmitted();
+            takeFromSource();
+            queueRetries();
+            expireTimeouts();
+            issueJobs();
+            flushCheckpoint();
+            if(!failed && !continuous && pending.isEmpty() && running.isEmpty() && !hasSubmitted() && retries.isEmpty()
+                    && (source==null || !sourceHasNext())){
+                if(waiting>0)
+                    loseUnsatisfiable();
+                break;
+            }
+            if(failed)
+                break;
+            //Nothing will wake the dispatcher for the next job run inline
+            if(source!=null&&takesOneAtATime()&&sourceHasNext()){
+                while((event = events.poll())!=null)
+                    handleEvent(event);
+                continue;
+            }
+            try{
+                long wake = nextWake();
+                RunnerEvent first = wake==Long.MAX_VALUE ? events.take()
+                        : events.poll(wake-System.nanoTime(), TimeUnit.NANOSECONDS);
+                if(first!=null)
+                    handleEvent(first);
+            }
+            catch(InterruptedException e){
+                continue;
+            }
+            while((event = events.poll())!=null)
+                handleEvent(event);
+        }
+        dispatching = false;
+        timeouts.clear();
+        flushCheckpoint();
+        if(!failed && !lostJobs.isEmpty()){
+            Map.Entry<String, String> first = lostJobs.entrySet().iterator().next();
+            error = lostJobs.size() + " jobs were lost, the first being job "
+                    + first.getKey() + " as " + first.getValue();
+            failed = true;
+            if(progress!=null)progress.fail("Error : " + error);
+        }
+        if(failed){
+            submitted.clear();
+            pending.clear();
+            abandonRunning();
+            dependents.clear();
+            waiting = 0;
+            retries.clear();
+            failures.clear();
+            failedOn.clear();
+            for(JobFuture<J> future : futures.values())
+                future.fail(error);
+            futures.clear();
+        }
+        closeGenerations();
+        if(sampler!=null)
+            sampler.stop();
+        if(!failed&&progress!=null&&generational)
+            progress.message("All jobs finished for generation " + generation);
+    }
+    
+    /**
+     * Stop the jobs still running once dispatching has failed. Their runners
+     * are asked to stop them, and each copy is kept as superseded until its
+     * runner reports it, so that the runner's slot is freed then, even if that
+     * is during a later run.
+     */
+    private void abandonRunning(){
+        for(Map.Entry<String, Issued> e : running.entrySet()){
+            for(R runner : e.getValue().runners){
+                runner.cancelJob(e.getKey());
+                addSuperseded(e.getKey(), runner);
+            }
+        }
+        running.clear();
+    }
+    
+    /**
+     * Handle a single notification from a TaskRunner. Completed jobs are
+     * collected, and the unfinished jobs of a runner that has died are put
+     * back to be issued again.
+     * @param event The notification to handle.
+     */
+    private void handleEvent(RunnerEvent event){
+        switch(event.kind){
+            case COMPLETED:{
+                R runner = runnerOf(event);
+                //Any jobs finished after this will be notified again
+                runner.notified.set(false);
+                for(String jobID : new ArrayList<>(runner.finishedJobs.keySet())){
+                    J job = runner.finishedJobs.remove(jobID);
+                    if(job!=null)
+                        completeJob(runner, jobID, job);
                 }
-                else{
-                    if(!cm.jobs.isEmpty()){
-                        Set<String> failedJobs = cm.jobs.keySet();
-                        cm.jobs.clear();
-                        for(String jID : failedJobs){
-                            if(failed)return;
-                            issueJob(jID);
-                        }
-                        anyLeft = true;
-                    }
+                break;
+            }
+            case CHANGED:{
+                if(!event.alive)
+                    reclaimJobs(event.runner);
+                updateCapacity(runnerOf(event));
+                break;
+            }
+            case REVOKED:{
+                R runner = runnerOf(event);
+                runner.revoking = false;
+                for(String jobID : event.jobIDs)
+                    returnJob(jobID, runner);
+                break;
+            }
+            case FAILED:{
+                if(event.runner==null)
+                    break;
+                R runner = runnerOf(event);
+                if(removeSuperseded(event.jobID, runner)){
+                    counters.failed();
+                    runner.counters.failed();
+                    release(runner);
+                    break;
                 }
+                failJob(runner, event.jobID, event.error);
+                break;
             }
-            synchronized(this){
-                if(anyLeft&&!Thread.interrupted()){
-                    try{
-                        wait(2000);
-                    }
-                    catch(InterruptedException e){
-                    
-                    }
+            case CANCELLED:{
+                R runner = runnerOf(event);
+                if(removeSuperseded(event.jobID, runner)){
+                    release(runner);
+                    break;
                 }
+                //Only jobs that have timed out are stopped while still wanted
+                Issued issued = running.get(event.jobID);
+                if(issued!=null&&issued.timedOut!=null)
+                    failJob(runner, event.jobID, issued.timedOut);
+                break;
             }
+            case CANCEL:
+                cancelJob(event.jobID, event.interrupt);
+                break;
+            case SUBMITTED:
+                break;
         }
-        if(progress!=null)progress.message("All jobs finished for generation " + generation);
-        for(R cm : taskRunners){
-            finishedJobs.putAll(cm.finishedJobs);
-            cm.finishedJobs.clear();
+    }
+    
+    /**
+     * Collect a job that a runner has completed, unless it is an unwanted
+     * copy.
+     * @param runner The runner.
+     * @param jobID The ID of the job.
+     * @param job The completed job.
+     */
+    private void completeJob(R runner, String jobID, J job){
+        if(removeSuperseded(jobID, runner)){
+            release(runner);
+            return;
+        }
+        Issued issued = running.get(jobID);
+        if(issued==null||!issued.runners.contains(runner))
+            return;
+        release(runner);
+        running.remove(jobID);
+        for(R other : issued.runners){
+            if(other!=runner)
+                addSuperseded(jobID, other);
         }
-        updateProgress();        
+        long turnaround = System.nanoTime()-issued.issuedAt;
+        metrics.record(runner, DispatchMetrics.TURNAROUND, turnaround, 1);
+        turnaroundTotal += turnaround;
+        turnarounds++;
+        counters.completed();
+        runner.counters.completed();
+        if(logging!=null){
+            try{
+                logging.finished(job);
+            }
+            catch(IllegalStateException e){
+                checkpointFailed(e);
+            }
+        }
+        finishJob(job);
     }
     
     /**
-     * If no TaskRunner has any free space for jobs then this function will wait
-     * until at least one space is free.
+     * Handle the failure of a job on a runner. The job is run again, or lost,
+     * once every copy of it has failed.
+     * @param runner The runner it failed on.
+     * @param jobID The ID of the job.
+     * @param error The cause of failure.
      */
-    private void waitForSpace(){
-        boolean noSpace = true;
-        while(!failed && noSpace){
-            updateProgress();
-            for(R cm : taskRunners){
-                if(cm.isAlive()&&cm.maxJobs!=cm.jobs.size()){
-                    noSpace=false;
-                    break;
+    private void failJob(R runner, String jobID, String error){
+        counters.failed();
+        runner.counters.failed();
+        Issued issued = running.get(jobID);
+        if(issued==null||!issued.runners.remove(runner))
+            return;
+        release(runner);
+        failedOn.put(jobID, runner);
+        //Let any other copy carry on
+        if(issued.runners.isEmpty()){
+            running.remove(jobID);
+            retry(issued.job, error);
+        }
+    }
+    
+    /**
+     * Stop a job that has been running for longer than its timeout. Copies
+     * run by runners that copy their jobs are left to stop in their own time,
+     * and the job is run again at once according to the RetryPolicy. A job run
+     * in place is only run again once its runner has stopped it.
+     * @param issued The job.
+     */
+    private void timeOut(Issued issued){
+        String jobID = issued.job.getID();
+        String reason = "it did not finish within " + retryPolicy.getTimeout(issued.job) + "ms";
+        publishMessage("Job " + jobID + " timed out");
+        if(!issued.runners.get(0).copiesJobs()){
+            issued.timedOut = reason;
+            issued.runners.get(0).cancelJob(jobID);
+            return;
+        }
+        running.remove(jobID);
+        for(R runner : issued.runners){
+            runner.cancelJob(jobID);
+            addSuperseded(jobID, runner);
+            failedOn.put(jobID, runner);
+            counters.failed();
+            runner.counters.failed();
+        }
+        retry(issued.job, reason);
+    }
+    
+    /**
+     * Stop the jobs that have been running for longer than their timeout.
+     */
+    private void expireTimeouts(){
+        long now = System.nanoTime();
+        while(!timeouts.isEmpty()&&timeouts.peek().at<=now){
+            Issued issued = timeouts.poll().issued;
+            if(running.get(issued.job.getID())==issued&&issued.timedOut==null)
+                timeOut(issued);
+        }
+    }
+    
+    /**
+     * When the dispatching thread should next wake if no runner reports
+     * anything, to queue a retry, stop a job that has run for too long, or
+     * copy a job that has become a straggler.
+     * @return The time as given by System.nanoTime(), or Long.MAX_VALUE if
+     * there is no need to wake.
+     */
+    private long nextWake(){
+        long wake = Long.MAX_VALUE;
+        if(!retries.isEmpty())
+            wake = retries.peek().readyAt;
+        if(!timeouts.isEmpty())
+            wake = Math.min(wake, timeouts.peek().at);
+        return Math.min(wake, speculateAt);
+    }
+    
+    /**
+     * Cancel a job wherever it is, and lose any jobs that depend upon it.
+     * @param jobID The ID of the job.
+     * @param interrupt Whether to ask the runners running it to stop it.
+     */
+    private void cancelJob(String jobID, boolean interrupt){
+        //It may have only just been added
+        acceptSubmitted();
+        J job = null;
+        Issued issued = running.remove(jobID);
+        if(issued!=null){
+            job = issued.job;
+            for(R runner : issued.runners){
+                if(interrupt)
+                    runner.cancelJob(jobID);
+                //Its slot is released once it has stopped or finished
+                addSuperseded(jobID, runner);
+            }
+        }
+        if(job==null)
+            job = removeQueued(jobID);
+        if(job==null)
+            return;
+        counters.cancelled();
+        publishMessage("Job " + jobID + " was cancelled");
+        failures.remove(jobID);
+        failedOn.remove(jobID);
+        Generation<J> owner = owners.remove(jobID);
+        if(owner!=null)
+            owner.cancelled();
+        JobFuture<J> future = futures.remove(jobID);
+        if(future!=null)
+            future.cancelled();
+        List<Waiting> children = dependents.remove(jobID);
+        if(children!=null){
+            for(Waiting w : children)
+                loseWaiting(w, "it depends upon job " + jobID + " which was cancelled");
+        }
+    }
+    
+    /**
+     * Remove a job that has not been issued from wherever it is waiting.
+     * @param jobID The ID of the job.
+     * @return The job, or null if it is not waiting.
+     */
+    private J removeQueued(String jobID){
+        for(Iterator<QueuedJob<J>> it = pending.iterator();it.hasNext();){
+            J job = it.next().job;
+            if(job.getID().equals(jobID)){
+                it.remove();
+                return job;
+            }
+        }
+        for(Iterator<Retry> it = retries.iterator();it.hasNext();){
+            J job = it.next().job;
+            if(job.getID().equals(jobID)){
+                it.remove();
+                return job;
+            }
+        }
+        for(List<Waiting> children : dependents.values()){
+            for(Waiting w : children){
+                if(!w.lost&&w.job.getID().equals(jobID)){
+                    //Keep it from being queued
+                    w.lost = true;
+                    waiting--;
+                    return w.job;
                 }
             }
-            synchronized(this) {
-                if(noSpace&&!Thread.interrupted()){
-                    try{
-                        wait(2000);
-                    }
-                    catch(InterruptedException e){
-                    
-                    }
+        }
+        return null;
+    }
+    
+    /**
+     * Get the runner that raised an event. Events are only raised by the
+     * runners of this dispatcher.
+     * @param event The event raised.
+     * @return The runner that raised it.
+     */
+    private R runnerOf(RunnerEvent event){
+        return runnerOf(event.runner);
+    }
+    
+    /**
+     * Get a runner as the type used by this dispatcher. Only the runners of
+     * this dispatcher ever report to it.
+     * @param runner The runner.
+     * @return The same runner.
+     */
+    @SuppressWarnings("unchecked")
+    private R runnerOf(AbstractTaskRunner<?> runner){
+        return (R)runner;
+    }
+    
+    /**
+     * Take up the jobs that have been added since this was last called, and
+     * finish any pipelined generations that are done.
+     */
+    private void acceptSubmitted(){
+        J job;
+        while((job = submitted.poll())!=null)
+            accept(job);
+        for(Iterator<Generation<J>> it = generations.iterator();it.hasNext();){
+            Generation<J> g = it.next();
+            //Once closed no more jobs may be added to it
+            boolean sealed = g.sealed;
+            while((job = g.submitted.poll())!=null)
+                accept(g, job);
+            if(sealed && g.unfinished==0){
+                it.remove();
+                g.complete();
+                publishMessage("All jobs finished for generation " + g.getNumber());
+            }
+        }
+    }
+    
+    /**
+     * Whether there are any jobs that have been added but not yet taken up.
+     * @return True if there are.
+     */
+    private boolean hasSubmitted(){
+        if(!submitted.isEmpty())
+            return true;
+        for(Generation<J> g : generations){
+            if(!g.submitted.isEmpty())
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Take up a new job of a pipelined generation, unless a job with the same
+     * ID is still unfinished.
+     * @param g The generation.
+     * @param job The job.
+     */
+    private void accept(Generation<J> g, J job){
+        String jobID = job.getID();
+        g.unfinished++;
+        Generation<J> other = owners.get(jobID);
+        if(other!=null){
+            String reason = "a job with the same ID is still unfinished in generation " + other.getNumber();
+            g.lost(jobID, reason);
+            counters.lost();
+            publishMessage("Job " + jobID + " was lost as " + reason);
+            return;
+        }
+        owners.put(jobID, g);
+        accept(job);
+    }
+    
+    /**
+     * Close every pipelined generation once dispatching has stopped. Any that
+     * still have unfinished jobs have failed.
+     */
+    private void closeGenerations(){
+        for(Generation<J> g : generations){
+            g.sealed = true;
+            if(g.unfinished==0&&g.submitted.isEmpty())
+                g.complete();
+            else
+                g.fail(failed ? error : "The dispatcher stopped");
+        }
+        generations.clear();
+        owners.clear();
+    }
+    
+    /**
+     * Take jobs from the source, if there is one, until there are as many
+     * waiting to be issued as the runners have space for, plus the lookahead.
+     */
+    private void takeFromSource(){
+        if(source==null)
+            return;
+        int wanted = capacity.totalFree()+lookahead;
+        if(wanted<1&&takesOneAtATime())
+            wanted = 1;
+        while(!failed && pending.size()<wanted && sourceHasNext()){
+            J job;
+            try{
+                job = source.next();
+            }
+            catch(RuntimeException e){
+                sourceFailed(e);
+                return;
+            }
+            if(job!=null)
+                accept(job);
+        }
+    }
+    
+    /**
+     * Whether jobs should be taken from the source one at a time when there is
+     * nowhere free to issue them, as they may be run inline. Otherwise nothing
+     * would be taken, as no runner would finish a job to wake the dispatcher.
+     * @return True if there are no runners or jobs may be run inline, and no
+     * job is waiting to be issued.
+     */
+    private boolean takesOneAtATime(){
+        return pending.isEmpty()&&(taskRunners.isEmpty()||inlineThreshold>0);
+    }
+    
+    /**
+     * Whether the source has more jobs.
+     * @return False if the source has run out, or has thrown an exception.
+     */
+    private boolean sourceHasNext(){
+        try{
+            return source.hasNext();
+        }
+        catch(RuntimeException e){
+            sourceFailed(e);
+            return false;
+        }
+    }
+    
+    /**
+     * Write out the records of the checkpoint log, if there is one.
+     */
+    private void flushCheckpoint(){
+        if(logging==null)
+            return;
+        try{
+            logging.flush();
+        }
+        catch(IllegalStateException e){
+            checkpointFailed(e);
+        }
+    }
+    
+    /**
+     * Fail, as the checkpoint log could not be written.
+     * @param e The exception thrown.
+     */
+    private void checkpointFailed(IllegalStateException e){
+        if(failed)
+            return;
+        error = "The checkpoint log failed: " + e.getCause();
+        failed = true;
+        if(progress!=null)progress.fail("Error : " + error);
+    }
+    
+    /**
+     * Fail, as the source of jobs has thrown an exception.
+     * @param e The exception thrown.
+     */
+    private void sourceFailed(RuntimeException e){
+        error = "The job source failed: " + e;
+        failed = true;
+        if(progress!=null)progress.fail("Error : " + error);
+    }
+    
+    /**
+     * Take up a new job, logging it, unless a job with the same ID has been
+     * taken up from the checkpoint log.
+     * @param job The job.
+     */
+    private void accept(J job){
+        if(resumed!=null&&!resumed.add(job.getID()))
+            return;
+        if(logging!=null){
+            try{
+                logging.added(job);
+            }
+            catch(IllegalStateException e){
+                checkpointFailed(e);
+            }
+        }
+        queue(job);
+    }
+    
+    /**
+     * Queue a job to be issued, or to wait for its dependencies.
+     * @param job The job.
+     */
+    private void queue(J job){
+        counters.added();
+        if(job instanceof DependentJob)
+            awaitDependencies(job);
+        //With nothing queued ahead of it, a job without hints may be run at once
+        else if(pending.isEmpty()&&!(job instanceof PrioritisedJob)&&!failed&&runsInline(job, 0))
+            runInline(job);
+        else
+            pending.add(new QueuedJob<>(job, queued++));
+    }
+    
+    /**
+     * Queue a job that depends upon others if they have all finished, or
+     * otherwise hold it back until they have.
+     * @param job The job, which must be a DependentJob.
+     */
+    private void awaitDependencies(J job){
+        Waiting w = new Waiting(job);
+        for(String parent : new HashSet<>(((DependentJob)job).getDependencies())){
+            J result = retainFinished ? finishedJobs.get(parent) : null;
+            if(result!=null){
+                w.results.put(parent, result);
+                continue;
+            }
+            List<Waiting> children = dependents.get(parent);
+            if(children==null){
+                children = new ArrayList<>(1);
+                dependents.put(parent, children);
+            }
+            children.add(w);
+            w.remaining++;
+        }
+        if(w.remaining==0)
+            queueWaiting(w);
+        else
+            waiting++;
+    }
+    
+    /**
+     * Pass a job the results of the jobs it depends upon, and queue it to be
+     * issued.
+     * @param w The job, whose dependencies have all finished.
+     */
+    private void queueWaiting(Waiting w){
+        ((DependentJob)w.job).setDependencyResults(w.results);
+        pending.add(new QueuedJob<>(w.job, queued++));
+    }
+    
+    /**
+     * Lose the jobs that are still waiting, as they depend on jobs that have
+     * not been added, or on each other.
+     */
+    private void loseUnsatisfiable(){
+        for(String parent : new ArrayList<>(dependents.keySet())){
+            List<Waiting> children = dependents.remove(parent);
+            if(children==null)
+                continue;
+            for(Waiting w : children)
+                loseWaiting(w, "it depends upon job " + parent + " which will not finish");
+        }
+    }
+    
+    /**
+     * Lose a job that is waiting on others, unless it has already been lost.
+     * @param w The waiting job.
+     * @param reason Why it was lost.
+     */
+    private void loseWaiting(Waiting w, String reason){
+        if(w.lost)
+            return;
+        w.lost = true;
+        waiting--;
+        loseJob(w.job, reason);
+    }
+    
+    /**
+     * Run a failed job again after a backoff, or lose it if it has failed too
+     * many times.
+     * @param job The job that has failed.
+     * @param reason The cause of failure.
+     */
+    private void retry(J job, String reason){
+        String jobID = job.getID();
+        Integer before = failures.get(jobID);
+        int n = before==null ? 1 : before+1;
+        if(n>=retryPolicy.getMaxAttempts(job)){
+            loseJob(job, "it failed " + n + (n==1?" time: ":" times: ") + reason);
+            return;
+        }
+        failures.put(jobID, n);
+        publishMessage("Job " + jobID + " failed, retrying: " + reason);
+        long delay = retryPolicy.getBackoff(job, n);
+        if(delay<=0)
+            pending.add(new QueuedJob<>(job, -queued++));
+        else
+            retries.add(new Retry(job, System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(delay)));
+    }
+    
+    /**
+     * Queue the failed jobs that have waited out their backoff.
+     */
+    private void queueRetries(){
+        long now = System.nanoTime();
+        while(!retries.isEmpty()&&retries.peek().readyAt<=now)
+            pending.add(new QueuedJob<>(retries.poll().job, -queued++));
+    }
+    
+    /**
+     * Give up on a job, failing its future and losing any jobs waiting on it.
+     * @param job The job.
+     * @param reason Why it was lost.
+     */
+    private void loseJob(J job, String reason){
+        String jobID = job.getID();
+        failures.remove(jobID);
+        failedOn.remove(jobID);
+        lostJobs.put(jobID, reason);
+        Generation<J> owner = owners.remove(jobID);
+        if(owner!=null)
+            owner.lost(jobID, reason);
+        counters.lost();
+        publishMessage("Job " + jobID + " was lost as " + reason);
+        JobFuture<J> future = futures.remove(jobID);
+        if(future!=null)
+            future.fail(reason);
+        List<Waiting> children = dependents.remove(jobID);
+        if(children!=null){
+            for(Waiting w : children)
+                loseWaiting(w, "it depends upon job " + jobID + " which was lost");
+        }
+    }
+    
+    /**
+     * Record a job as finished, and pass it on to its future and any listeners.
+     * @param job The finished job.
+     */
+    private void finishJob(J job){
+        String jobID = job.getID();
+        if(retainFinished)
+            finishedJobs.put(jobID, job);
+        Generation<J> owner = owners.remove(jobID);
+        if(owner!=null)
+            owner.finished(job);
+        JobFuture<J> future = futures.remove(jobID);
+        if(future!=null)
+            future.finish(job);
+        for(JobListener<? super J> listener : listeners)
+            listener.jobFinished(job);
+        failures.remove(jobID);
+        failedOn.remove(jobID);
+        List<Waiting> children = dependents.remove(jobID);
+        if(children!=null){
+            for(Waiting w : children){
+                if(w.lost)
+                    continue;
+                w.results.put(jobID, job);
+                if(--w.remaining==0){
+                    waiting--;
+                    queueWaiting(w);
                 }
             }
-
         }
-        updateProgress();
     }
     
     /**
-     * Update the TaskProgress listener with any progress from the TaskRunners.
+     * Take back all the jobs that were issued to a runner that has died, and
+     * queue them to be issued to the others ahead of any jobs of the same
+     * priority.
+     * @param runner The runner that has died.
      */
-    private void updateProgress(){
-        while(progress!=null&&progressQueue.peek()!=null)
-            progress.tick(progressQueue.poll());
+    private void reclaimJobs(AbstractTaskRunner<?> runner){
+        R dead = runnerOf(runner);
+        List<J> lost = new ArrayList<>();
+        synchronized(dead.jobs){
+            lost.addAll(dead.jobs.values());
+            dead.jobs.clear();
+        }
+        dead.revoking = false;
+        for(J job : lost)
+            returnJob(job.getID(), dead);
+        //Any superseded copies it had not reported will never be
+        Iterator<List<R>> copies = superseded.values().iterator();
+        while(copies.hasNext()){
+            List<R> runners = copies.next();
+            while(runners.remove(dead))
+                release(dead);
+            if(runners.isEmpty())
+                copies.remove();
+        }
+    }
+    
+    /**
+     * Take back a job that will not be finished by the runner it was issued
+     * to. If no other runner is running a copy of it, then it is queued to be
+     * issued again ahead of any jobs of the same priority.
+     * @param jobID The ID of the job.
+     * @param runner The runner it was issued to.
+     */
+    private void returnJob(String jobID, R runner){
+        if(removeSuperseded(jobID, runner)){
+            release(runner);
+            return;
+        }
+        Issued issued = running.get(jobID);
+        if(issued==null||!issued.runners.remove(runner))
+            return;
+        release(runner);
+        if(issued.runners.isEmpty()){
+            running.remove(jobID);
+            pending.add(new QueuedJob<>(issued.job, -queued++));
+        }
+    }
+    
+    /**
+     * Record that a runner has given back, or finished, one of the jobs issued
+     * to it.
+     * @param runner The runner.
+     */
+    private void release(R runner){
+        runner.assigned--;
+        counters.returned();
+        runner.counters.returned();
+        updateCapacity(runner);
+    }
+    
+    /**
+     * Re-index a runner by the number of jobs it may still be given.
+     * @param runner The runner.
+     */
+    private void updateCapacity(R runner){
+        capacity.set(runner, runner.isAlive() ? runner.maxJobs+extraJobs(runner)-runner.assigned : 0);
     }
     
     /**
-     * Issue jobs to the TaskRunners. This will return when all jobs have been
-     * issued or there has been a failure.
+     * Get the number of jobs a runner may be given beyond its number of
+     * processing elements.
+     * @param runner The runner.
+     * @return The prefetch, or the backlog the runner asks for if more.
+     */
+    private int extraJobs(R runner){
+        return adaptive ? Math.max(prefetch, runner.getBacklog()) : prefetch;
+    }
+    
+    /**
+     * Record that a runner is still running a job that has been finished
+     * elsewhere.
+     * @param jobID The ID of the job.
+     * @param runner The runner still running it.
+     */
+    private void addSuperseded(String jobID, R runner){
+        List<R> runners = superseded.get(jobID);
+        if(runners==null){
+            runners = new ArrayList<>(1);
+            superseded.put(jobID, runners);
+        }
+        runners.add(runner);
+    }
+    
+    /**
+     * Remove the record of a runner running a job that has been finished
+     * elsewhere, if there is one.
+     * @param jobID The ID of the job.
+     * @param runner The runner that was running it.
+     * @return True if the runner was running a superseded copy of the job.
+     */
+    private boolean removeSuperseded(String jobID, R runner){
+        List<R> runners = superseded.get(jobID);
+        if(runners==null||!runners.remove(runner))
+            return false;
+        if(runners.isEmpty())
+            superseded.remove(jobID);
+        return true;
+    }
+    
+    /**
+     * Issue as many pending jobs as the TaskRunners have space for. Each job is
+     * issued to the TaskRunner with the most free processing elements that is
+     * still alive. If speculative execution is on and there are no more jobs
+     * waiting, then copies of the longest running jobs are issued.
      */
     private void issueJobs(){
-        for(String job : jobs.keySet()){
-            if(failed)return;
-            issueJob(job);
+        List<QueuedJob<J>> deferred = null;
+        while(!failed && !pending.isEmpty()){
+            QueuedJob<J> head = pending.peek();
+            J job = head.job;
+            if(runsInline(job, head.cost)&&!superseded.containsKey(job.getID())){
+                metrics.record(DispatchMetrics.QUEUE_WAIT, System.nanoTime()-pending.poll().queuedAt);
+                runInline(job);
+                continue;
+            }
+            R runner = selectRunner(job.getID(), null);
+            if(runner==null){
+                if(!superseded.containsKey(job.getID()))
+                    break;
+                //Only runners still running an old copy have space for it
+                if(deferred==null)
+                    deferred = new ArrayList<>();
+                deferred.add(pending.poll());
+                continue;
+            }
+            metrics.record(DispatchMetrics.QUEUE_WAIT, System.nanoTime()-pending.poll().queuedAt);
+            Issued issued = new Issued(job, runner);
+            running.put(job.getID(), issued);
+            long timeout = retryPolicy.getTimeout(job);
+            if(timeout>0)
+                timeouts.add(new Timeout(issued, issued.issuedAt+TimeUnit.MILLISECONDS.toNanos(timeout)));
+            addTask(runner, job);
+        }
+        if(deferred!=null)
+            pending.addAll(deferred);
+        speculateAt = Long.MAX_VALUE;
+        if(!failed && pending.isEmpty() && submitted.isEmpty()){
+            if(!stealJobs() && speculative)
+                speculate();
+        }
+        for(R runner : unflushed){
+            runner.unflushed = false;
+            runner.flush();
+        }
+        unflushed.clear();
+    }
+    
+    /**
+     * Run a job on the dispatching thread, and collect it or retry it as
+     * though it had been run by a runner.
+     * @param job The job.
+     */
+    private void runInline(J job){
+        counters.issued();
+        metrics.issued();
+        long started = System.nanoTime();
+        Throwable failure = null;
+        try{
+            JobContext.run(job);
+        }
+        catch(Throwable t){
+            failure = t;
+        }
+        long took = System.nanoTime()-started;
+        counters.returned();
+        if(failure!=null){
+            counters.failed();
+            retry(job, failure.toString());
+            return;
+        }
+        metrics.record(DispatchMetrics.EXECUTION, took);
+        metrics.record(DispatchMetrics.TURNAROUND, took);
+        counters.completed();
+        if(logging!=null){
+            try{
+                logging.finished(job);
+            }
+            catch(IllegalStateException e){
+                checkpointFailed(e);
+            }
+        }
+        finishJob(job);
+    }
+    
+    /**
+     * Give a job to a runner, to be sent on once all the jobs that can be
+     * issued for now have been.
+     * @param runner The runner to run the job.
+     * @param job The job.
+     */
+    private void addTask(R runner, J job){
+        runner.assigned++;
+        counters.issued();
+        runner.counters.issued();
+        metrics.issued();
+        updateCapacity(runner);
+        runner.addTask(job);
+        if(!runner.unflushed){
+            runner.unflushed = true;
+            unflushed.add(runner);
         }
     }
     
     /**
-     * Issue the job with the given jobID to a TaskRunner. A job will be issued
-     * to the TaskRunner with the most free processing elements that is still
-     * alive. If there is no free space on a TaskRunner then this method will
-     * wait until there is space.
-     * @param jobID 
+     * Ask the runners with the most jobs queued beyond their processing
+     * elements to give back up to half of them, while there are idle
+     * processing elements on other runners.
+     * @return True if any runner has been asked, or is still being asked, to
+     * give jobs back.
      */
-    private void issueJob(String jobID){
-        AbstractTaskRunner<J> min = null;
-        int nFree = -1;
+    private boolean stealJobs(){
+        if(prefetch<=0&&!adaptive)
+            return false;
+        int idle = 0;
+        boolean stealing = false;
+        List<R> victims = new ArrayList<>();
         for(R cm : taskRunners){
-            if(cm.isAlive()&&cm.jobs.size()<cm.maxJobs&&(nFree<0||(cm.maxJobs-cm.jobs.size())>nFree)){
-                min = cm;
-                nFree = cm.maxJobs-cm.jobs.size();
+            if(cm.isAlive()&&cm.assigned<cm.maxJobs)
+                idle += cm.maxJobs-cm.assigned;
+            else if(cm.isAlive()&&!cm.revoking&&cm.assigned>cm.maxJobs)
+                victims.add(cm);
+            stealing |= cm.revoking;
+        }
+        if(idle==0||victims.isEmpty())
+            return stealing;
+        Collections.sort(victims, new Comparator<R>() {
+            @Override
+            public int compare(R a, R b) {
+                return a.assigned-a.maxJobs>b.assigned-b.maxJobs ? -1
+                        : a.assigned-a.maxJobs==b.assigned-b.maxJobs ? 0 : 1;
             }
+        });
+        for(int i=0;idle>0&&i<victims.size();i++){
+            R victim = victims.get(i);
+            int steal = Math.min(idle, (victim.assigned-victim.maxJobs+1)/2);
+            idle -= steal;
+            victim.revoking = true;
+            stealing = true;
+            victim.revokeJobs(steal);
         }
-        if(nFree==-1){
-            waitForSpace();
-            issueJob(jobID);
+        return stealing;
+    }
+    
+    /**
+     * Issue a second copy of each job that has been running for longer than
+     * the average job to a runner with free space, while there is one.
+     */
+    private void speculate(){
+        if(turnarounds==0)
+            return;
+        long started = System.nanoTime()-turnaroundTotal/turnarounds;
+        for(Issued issued : running.values()){
+            if(issued.runners.size()>1||!issued.runners.get(0).copiesJobs())
+                continue;
+            //Jobs are in the order they were issued, so the rest are younger
+            if(issued.issuedAt>started){
+                //Wake to look again once it is old enough, as nothing else may
+                speculateAt = issued.issuedAt+turnaroundTotal/turnarounds;
+                return;
+            }
+            R runner = selectRunner(issued.job.getID(), issued);
+            if(runner==null)
+                continue;
+            issued.runners.add(runner);
+            addTask(runner, issued.job);
         }
-        else{
-            min.addTask(jobs.get(jobID));
+    }
+    
+    /**
+     * Find the live TaskRunner with the most free processing elements that the
+     * given job may be issued to.
+     * @param jobID The ID of the job to be issued.
+     * @param copyOf If this is a copy of a job that has already been issued,
+     * then its record, otherwise null.
+     * @return The runner to issue the job to, or null if there is none.
+     */
+    private R selectRunner(String jobID, Issued copyOf){
+        List<R> excluded = superseded.get(jobID);
+        if(copyOf!=null){
+            if(excluded==null){
+                excluded = copyOf.runners;
+            }
+            else{
+                excluded = new ArrayList<>(excluded);
+                excluded.addAll(copyOf.runners);
+            }
         }
+        R avoid = failedOn.get(jobID);
+        if(avoid!=null){
+            //Retry elsewhere if there is space, otherwise on the same runner
+            List<R> elsewhere = excluded==null ? new ArrayList<R>(1) : new ArrayList<>(excluded);
+            elsewhere.add(avoid);
+            R runner = capacity.mostFree(elsewhere, copyOf!=null);
+            if(runner!=null)
+                return runner;
+        }
+        return capacity.mostFree(excluded, copyOf!=null);
     }
     
     /**
-     * To be called by a TaskRunner once a job has been completed.
-     * @param jobID The ID of the completed job (unused).
+     * To be called by a TaskRunner once jobs have been completed, and placed in
+     * its collection of finished jobs. Every finished job in the collection is
+     * collected at once, so the runner need only call this again once it has
+     * been collected.
+     * @param runner The runner that has completed the jobs.
      */
-    public void jobCompleted(String jobID){
-        mainThread.interrupt();
-        if(progress!=null)
-            progressQueue.add("Completed Generation: " + generation + " \tTask Number: " + ++jobNum);
+    void jobsCompleted(AbstractTaskRunner<?> runner){
+        events.add(new RunnerEvent(RunnerEvent.Kind.COMPLETED, runner, null));
     }
     
     /**
-     * Report that a job on a TaskRunner has failed. That is that the job
-     * managed to complete but in an incorrect state. It is assumed at this point
-	 * that there is no point continuing with other jobs.
-     * @param jobID
-     * @param e 
+     * To be called by a TaskRunner once it has given back jobs that it was
+     * asked to revoke.
+     * @param runner The runner giving back the jobs.
+     * @param jobIDs The IDs of the jobs it will not run.
+     */
+    void jobsRevoked(AbstractTaskRunner<?> runner, List<String> jobIDs){
+        events.add(new RunnerEvent(runner, jobIDs));
+    }
+    
+    /**
+     * To be called by a TaskRunner once a job it was asked to cancel will not
+     * be run, or has stopped.
+     * @param runner The runner the job was issued to.
+     * @param jobID The ID of the cancelled job.
+     */
+    void jobCancelled(AbstractTaskRunner<?> runner, String jobID){
+        events.add(new RunnerEvent(RunnerEvent.Kind.CANCELLED, runner, jobID));
+    }
+    
+    /**
+     * To be called by a TaskRunner when it has started, stopped or had its
+     * number of processing elements changed.
+     * @param runner The runner that has changed.
+     */
+    void runnerChanged(AbstractTaskRunner<?> runner){
+        events.add(new RunnerEvent(RunnerEvent.Kind.CHANGED, runner, null));
+    }
+    
+    /**
+     * To be called by a TaskRunner when a job it was running has failed. The
+     * job is run again, or lost, according to the RetryPolicy.
+     * @param runner The runner the job failed on.
+     * @param jobID The ID of the failed job.
+     * @param e The cause of failure.
+     */
+    void jobFailed(AbstractTaskRunner<?> runner, String jobID, String e){
+        events.add(new RunnerEvent(runner, jobID, e));
+    }
+    
+    /**
+     * Report a failure that can not be recovered from by running a job again.
+     * It is assumed at this point that there is no point continuing with other
+	 * jobs, so the dispatcher stops and the run fails.
+     * @param jobID The ID of the job that caused the failure.
+     * @param e The cause of failure.
      */
     public void jobFailed(String jobID, String e){
         //What to do when we fail?
         //Quit the evo prog?
         System.out.println("Called jobFailed");
-        failed = true;
         error = e;
+        failed = true;
         if(progress!=null)progress.fail("Error : " + e);
-        mainThread.interrupt();
+        events.add(new RunnerEvent(RunnerEvent.Kind.FAILED, null, jobID));
     }
     
     /**
@@ -273,4 +1882,220 @@ public abstract class AbstractTaskDispatcher <R extends AbstractTaskRunner<J>, J
         return error;
     }
 
+    /**
+     * A change of state reported by a TaskRunner, to be handled on the
+     * dispatching thread.
+     */
+    private static class RunnerEvent {
+        enum Kind { COMPLETED, CHANGED, FAILED, SUBMITTED, REVOKED, CANCELLED, CANCEL }
+        final Kind kind;
+        final AbstractTaskRunner<?> runner;
+        final String jobID;
+        final List<String> jobIDs;
+        final String error;
+        /**
+         * Whether the runner was alive when the event was raised. The runner
+         * may have been restarted by the time the event is handled.
+         */
+        final boolean alive;
+        /**
+         * Whether a job being cancelled should be stopped if it is running.
+         */
+        final boolean interrupt;
+        
+        RunnerEvent(Kind kind, AbstractTaskRunner<?> runner, String jobID){
+            this.kind = kind;
+            this.runner = runner;
+            this.jobID = jobID;
+            this.jobIDs = null;
+            this.error = null;
+            this.alive = runner!=null&&runner.isAlive();
+            this.interrupt = false;
+        }
+        
+        RunnerEvent(String jobID, boolean interrupt){
+            this.kind = Kind.CANCEL;
+            this.runner = null;
+            this.jobID = jobID;
+            this.jobIDs = null;
+            this.error = null;
+            this.alive = false;
+            this.interrupt = interrupt;
+        }
+        
+        RunnerEvent(AbstractTaskRunner<?> runner, String jobID, String error){
+            this.kind = Kind.FAILED;
+            this.runner = runner;
+            this.jobID = jobID;
+            this.jobIDs = null;
+            this.error = error;
+            this.alive = runner.isAlive();
+            this.interrupt = false;
+        }
+        
+        RunnerEvent(AbstractTaskRunner<?> runner, List<String> jobIDs){
+            this.kind = Kind.REVOKED;
+            this.runner = runner;
+            this.jobID = null;
+            this.jobIDs = jobIDs;
+            this.error = null;
+            this.alive = runner.isAlive();
+            this.interrupt = false;
+        }
+    }
+    
+    /**
+     * A job waiting to be issued. The hints of a PrioritisedJob are read once,
+     * when it is queued.
+     */
+    private static class QueuedJob<J extends Job> implements Comparable<QueuedJob<J>> {
+        final J job;
+        final long order;
+        final int priority;
+        final long deadline;
+        final long cost;
+        final long queuedAt = System.nanoTime();
+        
+        QueuedJob(J job, long order){
+            this.job = job;
+            this.order = order;
+            if(job instanceof PrioritisedJob){
+                PrioritisedJob pj = (PrioritisedJob)job;
+                priority = pj.getPriority();
+                deadline = pj.getDeadline();
+                cost = pj.getEstimatedCost();
+            }
+            else{
+                priority = 0;
+                deadline = Long.MAX_VALUE;
+                cost = 0;
+            }
+        }
+        
+        /**
+         * Highest priority first, then earliest deadline, then most expensive,
+         * then the order in which they were queued.
+         */
+        @Override
+        public int compareTo(QueuedJob<J> o){
+            if(priority!=o.priority)
+                return priority>o.priority?-1:1;
+            if(deadline!=o.deadline)
+                return deadline<o.deadline?-1:1;
+            if(cost!=o.cost)
+                return cost>o.cost?-1:1;
+            return order<o.order?-1:order==o.order?0:1;
+        }
+    }
+    
+    /**
+     * A failed job waiting to be queued again.
+     */
+    private class Retry implements Comparable<Retry> {
+        final J job;
+        final long readyAt;
+        
+        Retry(J job, long readyAt){
+            this.job = job;
+            this.readyAt = readyAt;
+        }
+        
+        @Override
+        public int compareTo(Retry o){
+            return readyAt<o.readyAt?-1:readyAt==o.readyAt?0:1;
+        }
+    }
+    
+    /**
+     * An issued job that will have run for too long at the given time.
+     */
+    private class Timeout implements Comparable<Timeout> {
+        final Issued issued;
+        final long at;
+        
+        Timeout(Issued issued, long at){
+            this.issued = issued;
+            this.at = at;
+        }
+        
+        @Override
+        public int compareTo(Timeout o){
+            return at<o.at?-1:at==o.at?0:1;
+        }
+    }
+    
+    /**
+     * A job that is waiting for the jobs it depends upon to finish, and the
+     * results of those that have.
+     */
+    private class Waiting {
+        final J job;
+        final Map<String, J> results = new HashMap<>();
+        int remaining = 0;
+        boolean lost = false;
+        
+        Waiting(J job){
+            this.job = job;
+        }
+    }
+    
+    /**
+     * Periodically updates a TaskProgress from the counters of the current
+     * generation, off the dispatching thread.
+     */
+    private class ProgressSampler extends TimerTask {
+        private final TaskProgress tp;
+        private final Timer timer = new Timer("TaskProgress", true);
+        private ProgressCounters sampled = null;
+        private long ticked = 0;
+        
+        ProgressSampler(TaskProgress tp){
+            this.tp = tp;
+            timer.schedule(this, progressInterval, progressInterval);
+        }
+        
+        @Override
+        public synchronized void run(){
+            ProgressCounters c = counters;
+            if(c!=sampled){
+                sampled = c;
+                ticked = 0;
+            }
+            long done = c.getCompleted();
+            if(done<=ticked)
+                return;
+            for(;ticked<done-1;ticked++)
+                tp.tick();
+            ticked++;
+            tp.tick(c.toString());
+        }
+        
+        /**
+         * Stop sampling, after a last update.
+         */
+        void stop(){
+            timer.cancel();
+            run();
+        }
+    }
+    
+    /**
+     * A job that has been issued, and the runners that it has been issued to.
+     */
+    private class Issued {
+        final J job;
+        final long issuedAt = System.nanoTime();
+        final List<R> runners = new ArrayList<>(2);
+        /**
+         * Why the job is being stopped for having run too long, or null if it
+         * has not.
+         */
+        String timedOut;
+        
+        Issued(J job, R runner){
+            this.job = job;
+            runners.add(runner);
+        }
+    }
+
 }
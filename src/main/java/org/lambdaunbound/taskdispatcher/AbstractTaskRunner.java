@@ -2,7 +2,11 @@ package org.lambdaunbound.taskdispatcher;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An abstract class providing base functionality for other classes that wish to
@@ -20,18 +24,50 @@ public abstract class AbstractTaskRunner <J extends Job> implements Runnable {
      */
     protected int maxJobs = 0;
     /**
-     * Unfinished jobs that this TaskRunner may or may not be running.
+     * Unfinished jobs that this TaskRunner may or may not be running, in the
+     * order they were added.
      */
-    protected Map<String, J> jobs = Collections.synchronizedMap(new HashMap<String,J>());
+    protected Map<String, J> jobs = Collections.synchronizedMap(new LinkedHashMap<String,J>());
     /**
-     * Jobs ( and their results ) that have been completed.
+     * Jobs ( and their results ) that have been completed, but not yet
+     * collected by the dispatcher.
      */
-    protected Map<String, J> finishedJobs = new HashMap<>();
+    protected Map<String, J> finishedJobs = new ConcurrentHashMap<>();
+    /**
+     * Whether the dispatcher has been told of finished jobs that it has not
+     * yet collected.
+     */
+    final AtomicBoolean notified = new AtomicBoolean();
     /**
      * The dispatcher that owns this TaskRunner
      */
     protected AbstractTaskDispatcher<?,?> dispatcher;
-    private boolean alive;
+    private volatile boolean alive;
+    /**
+     * Whether the dispatcher is waiting for this runner to give back jobs.
+     * Only used by the dispatcher.
+     */
+    boolean revoking = false;
+    /**
+     * Whether jobs have been added to this runner since it was last flushed.
+     * Only used by the dispatcher.
+     */
+    boolean unflushed = false;
+    /**
+     * The number of jobs, including copies, that the dispatcher has issued to
+     * this runner and not yet had back. Only used by the dispatcher.
+     */
+    int assigned = 0;
+    /**
+     * The number of free slots this runner is indexed under by the dispatcher,
+     * or 0 if it is not indexed. Only used by the dispatcher.
+     * @see CapacityIndex
+     */
+    int slot = 0;
+    /**
+     * The counts of the jobs issued to this runner, over all generations.
+     */
+    final ProgressCounters counters = new ProgressCounters(-1, 0);
 
     /**
      * Hook this instance to the TaskDispatcher that it will be receiving work
@@ -56,9 +92,112 @@ public abstract class AbstractTaskRunner <J extends Job> implements Runnable {
     public abstract void addTask(J job);
 
     /**
-     * Report the failure of a job. This failure is usually called by an error
-     * in one of the property files. Removes the failing job from the collection
-     * of jobs to complete and complain to the dispatcher.
+     * Get the number of jobs this runner would like queued beyond its max
+     * jobs, so that when one of its processing elements finishes a job there
+     * is already another waiting for it, rather than it waiting for the
+     * dispatcher to send one. This may change as the runner learns how long
+     * its jobs take. By default no jobs are queued.
+     * @return The number of extra jobs.
+     * @see AbstractTaskDispatcher#setAdaptivePrefetch(boolean)
+     */
+    public int getBacklog() {
+        return 0;
+    }
+
+    /**
+     * Whether the jobs given to this runner are run as copies, for instance by
+     * being serialised to another machine, rather than run in place. Only such
+     * runners may be given a speculative copy of a job that is already running,
+     * as two runners must never run the same Job object at the same time.
+     * @return True if this runner runs copies of its jobs.
+     */
+    public boolean copiesJobs() {
+        return false;
+    }
+
+    /**
+     * Try to give back up to max of the jobs that have been added to this
+     * runner but not yet started, so that they may be run by another runner.
+     * This may be done asynchronously, but once done {@link #jobsRevoked(List)}
+     * must be called with the jobs that were given back, even if there are none.
+     * By default no jobs are given back.
+     * @param max The most jobs to give back.
+     */
+    protected void revokeJobs(int max) {
+        jobsRevoked(Collections.<String>emptyList());
+    }
+
+    /**
+     * Give back jobs that have been added to this runner but will not be run
+     * by it, and let the dispatcher know so that it may issue them elsewhere.
+     * @param jobIDs The IDs of the jobs given back.
+     */
+    protected void jobsRevoked(List<String> jobIDs) {
+        for(String jobID : jobIDs){
+            jobs.remove(jobID);
+        }
+        dispatcher.jobsRevoked(this, jobIDs);
+    }
+
+    /**
+     * Stop a job that is no longer wanted, interrupting it if it has been
+     * started, or otherwise dropping it. This may be done asynchronously, but
+     * once the job will not be run, or has stopped, {@link #jobCancelled(String)}
+     * must be called, unless it is reported as completed or failed instead.
+     * By default jobs are not stopped, and are left to complete.
+     * @param jobID The ID of the job.
+     */
+    protected void cancelJob(String jobID) {
+    }
+
+    /**
+     * Let the dispatcher know that a job it asked to be cancelled will not be
+     * run, or has stopped, so that this runner has room for another.
+     * @param jobID The ID of the cancelled job.
+     */
+    protected void jobCancelled(String jobID) {
+        jobs.remove(jobID);
+        dispatcher.jobCancelled(this, jobID);
+    }
+
+    /**
+     * Send on any jobs that have been added to this runner but held back, so
+     * that they may be sent together. Called by the dispatcher once it has
+     * issued all the jobs it can for now. By default jobs are never held back.
+     */
+    protected void flush() {
+    }
+
+    /**
+     * Record that a job has been completed by this runner. The job is moved
+     * from the jobs collection to the finished jobs collection, and the
+     * dispatcher is notified so that it may collect it, unless it has already
+     * been notified of jobs it has not yet collected, so that jobs finishing
+     * together are collected together.
+     * @param jobID The ID of the completed job.
+     * @param job The completed job.
+     */
+    protected void jobCompleted(String jobID, J job) {
+        jobs.remove(jobID);
+        finishedJobs.put(jobID, job);
+        if(notified.compareAndSet(false, true))
+            dispatcher.jobsCompleted(this);
+    }
+
+    /**
+     * Set the max number of jobs that should be issued to this runner, and let
+     * the dispatcher know that it may have more room for work.
+     * @param max The new max number of jobs.
+     */
+    protected void setMaxJobs(int max) {
+        maxJobs = max;
+        dispatcher.runnerChanged(this);
+    }
+
+    /**
+     * Report the failure of a job. Removes the failing job from the collection
+     * of jobs to complete and complain to the dispatcher, which may issue it
+     * again according to its RetryPolicy.
      * @param jobID The ID of the job that has failed.
      * @param error The cause of this error.
      */
@@ -67,7 +206,7 @@ public abstract class AbstractTaskRunner <J extends Job> implements Runnable {
         if (jobs.containsKey(jobID)) {
             jobs.remove(jobID);
         }
-        dispatcher.jobFailed(jobID, error);
+        dispatcher.jobFailed(this, jobID, error);
     }
 
     /**
@@ -75,11 +214,42 @@ public abstract class AbstractTaskRunner <J extends Job> implements Runnable {
      * Causes of un-live-ness should include the processing element(s) that this
      * runner represents no longer being active. Or that the dispatcher is
      * closing down. If set to false, then the thread running in this Runner
-     * should end.
+     * should end. The dispatcher is notified of the change, so that it may
+     * reissue any jobs if this runner has died.
      * @param _alive The state this thread should be in.
      */
     public void setAlive(boolean _alive) {
         alive = _alive;
+        dispatcher.runnerChanged(this);
+    }
+
+    /**
+     * Get a name for this runner, such as the machine it represents, to
+     * identify it in metrics.
+     * @return The name of this runner.
+     */
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Record the time that jobs spent in a stage of being run by this runner.
+     * @param stage The stage, as named by DispatchMetrics.
+     * @param nanos The time spent by each job in nanoseconds.
+     * @param jobs The number of jobs that spent that time.
+     * @see DispatchMetrics
+     */
+    protected void recordTime(String stage, long nanos, int jobs) {
+        dispatcher.getMetrics().record(this, stage, nanos, jobs);
+    }
+
+    /**
+     * Get the counts of the jobs issued to this runner, over all generations.
+     * These may be read at any time, from any thread.
+     * @return The counters of this runner.
+     */
+    public ProgressCounters getProgress() {
+        return counters;
     }
 
     /**
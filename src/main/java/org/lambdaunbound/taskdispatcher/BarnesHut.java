@@ -2,10 +2,10 @@ package org.lambdaunbound.taskdispatcher;
 
 //Start the applet and define a few necessary variables
 
-import org.lambdaunbound.taskdispatcher.threaded.ThreadedDispatcher;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -161,20 +161,8 @@ public class BarnesHut {
 		for(Body b : bodies){
 			tree.insert(b);
 		}
-//		ThreadedDispatcher<BarnesHutJob> td = new ThreadedDispatcher<>();
-//		td.setUp();
-//		for(int i=0;i<1;i++){
-//			Collection<Body> b = bodies.subList((i*bodies.size())/8,((i+1)*bodies.size())/8);
-//			BarnesHutJob job = new BarnesHutJob();
-//			job.setID(""+i);
-//			job.bodies=b;
-//			td.addJob(job);
-//		}
-//		td.start();
-//		td.end();
-		for(Body b : bodies){
-			tree.updateForce(b);
-		}
+		//The bodies are split between jobs as they are run, to balance the uneven cost of each
+		JobContext.run(new ForceJob(bodies, 0, bodies.size()));
 		for(Body b : bodies){
 			b.update(timestep);
 		}
@@ -388,7 +376,6 @@ public class BarnesHut {
 	private class BarnesHutJob implements Job{
 		String id;
 		Collection<Body> bodies;
-		@Override
 		public void setID(String ID) {
 			id = ID;
 		}
@@ -407,4 +394,34 @@ public class BarnesHut {
 		
 	}
 
-}
\ No newline at end of file
+	private class ForceJob implements Job{
+		private static final long serialVersionUID = 1L;
+		static final int GRAIN = 256;
+		List<Body> bodies;
+		int from;
+		int to;
+		ForceJob(List<Body> bodies, int from, int to){
+			this.bodies=bodies;
+			this.from=from;
+			this.to=to;
+		}
+
+		@Override
+		public String getID() {
+			return "force "+from+"-"+to;
+		}
+
+		@Override
+		public void run() {
+			if(to-from<=GRAIN){
+				for(int i=from;i<to;i++){
+					tree.updateForce(bodies.get(i));
+				}
+			}
+			else{
+				int mid = (from+to)>>>1;
+				JobContext.current().invokeAll(Arrays.asList(new ForceJob(bodies, from, mid), new ForceJob(bodies, mid, to)));
+			}
+		}
+	}
+}
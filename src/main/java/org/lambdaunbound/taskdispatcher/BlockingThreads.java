@@ -0,0 +1,91 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes pools of threads for jobs that spend most of their time waiting, such
+ * as on files or other processes, rather than computing. Such jobs may be run
+ * many more at a time than there are processing elements.
+ *
+ * Where the VM has virtual threads, they are used, as a waiting virtual thread
+ * holds on to no thread of the VM. Each job is given a virtual thread of its
+ * own, as they are too cheap to be worth pooling, and a semaphore limits how
+ * many run at once. They are looked up by reflection, so that this library
+ * still runs on VMs without them. Elsewhere a pool of platform threads is
+ * used, made only as jobs need them and retired once they have been idle for
+ * a while.
+ *
+ * @author gg32
+ */
+public class BlockingThreads {
+
+    /**
+     * How long an idle platform thread is kept.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final ThreadFactory virtual = virtualFactory();
+
+    private BlockingThreads(){
+    }
+
+    /**
+     * Whether this VM has virtual threads.
+     * @return True if jobs are run on virtual threads.
+     */
+    public static boolean hasVirtualThreads(){
+        return virtual!=null;
+    }
+
+    /**
+     * Make a pool that runs up to the given number of jobs at once. Jobs
+     * beyond that wait, in the order they were given, until one of those
+     * running has finished.
+     * @param threads The most jobs to run at once.
+     * @return The pool.
+     */
+    public static ExecutorService newPool(int threads){
+        if(threads<1)
+            throw new IllegalArgumentException("There must be at least 1 thread: " + threads);
+        if(virtual!=null)
+            return new BoundedExecutor(virtual, threads);
+        final AtomicInteger made = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "BlockingJob-" + made.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Look up a factory of virtual threads.
+     * @return The factory, or null if this VM has no virtual threads.
+     */
+    private static ThreadFactory virtualFactory(){
+        try{
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "BlockingJob-", 1L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory)factory.invoke(builder);
+        }
+        catch(ReflectiveOperationException|RuntimeException e){
+            //Either not there, or only as a preview
+            return null;
+        }
+    }
+
+}
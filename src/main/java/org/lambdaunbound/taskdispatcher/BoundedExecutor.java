@@ -0,0 +1,147 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ExecutorService that starts a new thread for every task, and limits how
+ * many of them run at once with a semaphore rather than a pool. Tasks beyond
+ * the limit wait on their own threads for a permit, in the order they were
+ * given. This suits virtual threads, which are cheap to make and should not
+ * be pooled.
+ *
+ * @author gg32
+ * @see BlockingThreads#newPool(int)
+ */
+class BoundedExecutor extends AbstractExecutorService {
+
+    private final ThreadFactory factory;
+    private final Semaphore permits;
+    /**
+     * Every thread started and not yet finished, guarded by this.
+     */
+    private final Set<Thread> threads = new HashSet<>();
+    /**
+     * The tasks of the threads still waiting for a permit, guarded by this.
+     */
+    private final Map<Thread, Runnable> waiting = new HashMap<>();
+    private boolean shutdown = false;
+
+    /**
+     * Create an executor.
+     * @param factory The factory to make a thread for each task.
+     * @param permits The most tasks to run at once.
+     */
+    BoundedExecutor(ThreadFactory factory, int permits){
+        this.factory = factory;
+        //Fair, so tasks are started in the order they were given
+        this.permits = new Semaphore(permits, true);
+    }
+
+    @Override
+    public void execute(final Runnable command){
+        if(command==null)
+            throw new NullPointerException();
+        Thread t;
+        synchronized(this){
+            if(shutdown)
+                throw new RejectedExecutionException("The executor has been shut down");
+            t = factory.newThread(new Runnable(){
+                @Override
+                public void run(){
+                    runTask();
+                }
+            });
+            threads.add(t);
+            waiting.put(t, command);
+        }
+        t.start();
+    }
+
+    /**
+     * Wait for a permit, then run the task of this thread, unless it has been
+     * taken back by shutdownNow.
+     */
+    private void runTask(){
+        Thread self = Thread.currentThread();
+        try{
+            permits.acquire();
+            try{
+                Runnable command;
+                synchronized(this){
+                    command = waiting.remove(self);
+                }
+                if(command!=null)
+                    command.run();
+            }
+            finally{
+                permits.release();
+            }
+        }
+        catch(InterruptedException e){
+            //Stopped by shutdownNow while waiting
+        }
+        finally{
+            synchronized(this){
+                waiting.remove(self);
+                threads.remove(self);
+                if(threads.isEmpty())
+                    notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void shutdown(){
+        shutdown = true;
+        if(threads.isEmpty())
+            notifyAll();
+    }
+
+    /**
+     * Shut down, interrupting the tasks that are running, and give back those
+     * still waiting for a permit.
+     * @return The tasks that were not started.
+     */
+    @Override
+    public synchronized List<Runnable> shutdownNow(){
+        shutdown = true;
+        List<Runnable> unstarted = new ArrayList<>(waiting.values());
+        waiting.clear();
+        for(Thread t : threads)
+            t.interrupt();
+        return unstarted;
+    }
+
+    @Override
+    public synchronized boolean isShutdown(){
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated(){
+        return shutdown&&threads.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime()+unit.toNanos(timeout);
+        while(!isTerminated()){
+            long left = deadline-System.nanoTime();
+            if(left<=0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * An index of TaskRunners by how many more jobs they may be given, so that the
+ * runner with the most free space can be found without looking at every
+ * runner. Runners are kept in buckets by their number of free slots, and the
+ * highest non-empty bucket is tracked, so finding and updating a runner take
+ * constant time. Runners with no free slots are not kept at all.
+ * Only used by the dispatching thread.
+ *
+ * @author gg32
+ * @param <R> The type of TaskRunner indexed.
+ */
+class CapacityIndex<R extends AbstractTaskRunner<?>> {
+
+    /**
+     * The runners with each number of free slots, in the order they gained
+     * that many. Bucket 0 is never used.
+     */
+    private final List<LinkedHashSet<R>> buckets = new ArrayList<>();
+    /**
+     * The highest bucket that may not be empty.
+     */
+    private int top = 0;
+    /**
+     * The total free slots of all the runners.
+     */
+    private int total = 0;
+
+    /**
+     * Set the number of free slots a runner has. A runner with no free slots,
+     * or which is not alive, should be set to 0, and will be removed.
+     * @param runner The runner.
+     * @param free The number of jobs it may still be given.
+     */
+    void set(R runner, int free){
+        if(free<0)
+            free = 0;
+        if(runner.slot==free)
+            return;
+        total += free-runner.slot;
+        if(runner.slot>0)
+            buckets.get(runner.slot).remove(runner);
+        runner.slot = free;
+        if(free==0)
+            return;
+        while(buckets.size()<=free)
+            buckets.add(new LinkedHashSet<R>());
+        buckets.get(free).add(runner);
+        if(free>top)
+            top = free;
+    }
+
+    /**
+     * Find the runner with the most free slots. Of those with equally many,
+     * the one that has had that many the longest is chosen.
+     * @param excluded Runners that may not be chosen, or null if there are none.
+     * @param copies If only runners that run copies of their jobs may be chosen.
+     * @return The runner, or null if no runner has any free slots.
+     */
+    R mostFree(Collection<R> excluded, boolean copies){
+        while(top>0&&buckets.get(top).isEmpty())
+            top--;
+        for(int free=top;free>0;free--){
+            for(R runner : buckets.get(free)){
+                if((excluded==null||!excluded.contains(runner))
+                        &&(!copies||runner.copiesJobs()))
+                    return runner;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the total number of jobs that may still be given to the runners.
+     * @return The total free slots.
+     */
+    int totalFree(){
+        return total;
+    }
+
+    /**
+     * Remove every runner from the index.
+     */
+    void clear(){
+        for(LinkedHashSet<R> bucket : buckets){
+            for(R runner : bucket)
+                runner.slot = 0;
+            bucket.clear();
+        }
+        top = 0;
+        total = 0;
+    }
+
+}
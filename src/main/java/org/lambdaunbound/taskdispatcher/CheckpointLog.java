@@ -0,0 +1,275 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A log of the progress of a generation, kept in a file so that the generation
+ * may be resumed by a new dispatcher if the one running it dies. The dispatcher
+ * appends each job as it is taken up, and again once it has finished, so the
+ * log holds every job of the generation and the result of each that finished.
+ * Records are written out once per pass of the dispatching thread, rather than
+ * for every job.
+ *
+ * Each record is a tag, the ID of the job, and the length of its serialised
+ * form followed by the form itself. A record cut short by a crash is dropped
+ * when the log is opened.
+ *
+ * @author gg32
+ * @param <J> The type of Job logged.
+ * @see AbstractTaskDispatcher#setCheckpointLog(CheckpointLog)
+ * @see AbstractTaskDispatcher#resume()
+ */
+public class CheckpointLog<J extends Job> implements Closeable {
+
+    private static final byte ADDED = 'A';
+    private static final byte FINISHED = 'F';
+
+    private final File file;
+    private final boolean sync;
+    private FileOutputStream out;
+    private DataOutputStream writer;
+    /**
+     * The number of bytes of whole records in the file, some of which may
+     * still be buffered in the writer.
+     */
+    private long length;
+    private boolean flushed = true;
+
+    /**
+     * Open a log in the given file, keeping any records already in it so that
+     * they may be resumed from.
+     * @param file The file to keep the log in.
+     * @throws IOException If the file can not be read or created.
+     */
+    public CheckpointLog(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * Open a log in the given file, keeping any records already in it so that
+     * they may be resumed from.
+     * @param file The file to keep the log in.
+     * @param sync Whether to force records to the disk each time they are
+     * written out, so that they also survive the machine crashing, rather than
+     * only the VM.
+     * @throws IOException If the file can not be read or created.
+     */
+    public CheckpointLog(File file, boolean sync) throws IOException {
+        this.file = file;
+        this.sync = sync;
+        length = file.exists() ? scan(null) : 0;
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+            raf.setLength(length);
+        }
+        open(true);
+    }
+
+    private void open(boolean append) throws IOException {
+        out = new FileOutputStream(file, append);
+        writer = new DataOutputStream(new BufferedOutputStream(out, 1<<16));
+        flushed = true;
+    }
+
+    /**
+     * Whether there are any records to resume from.
+     * @return True if the log is not empty.
+     */
+    public synchronized boolean hasCheckpoint(){
+        return length>0;
+    }
+
+    /**
+     * Record that a job has been taken up by the dispatcher.
+     * @param job The job.
+     */
+    synchronized void added(J job){
+        append(ADDED, job);
+    }
+
+    /**
+     * Record that a job has finished.
+     * @param job The finished job.
+     */
+    synchronized void finished(J job){
+        append(FINISHED, job);
+    }
+
+    private void append(byte tag, J job){
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(job);
+            oos.close();
+            writer.writeByte(tag);
+            writer.writeUTF(job.getID());
+            writer.writeInt(bytes.size());
+            bytes.writeTo(writer);
+            length += recordLength(job.getID(), bytes.size());
+            flushed = false;
+        }
+        catch(IOException e){
+            throw new IllegalStateException("Unable to log job " + job.getID(), e);
+        }
+    }
+
+    /**
+     * Write out any buffered records.
+     */
+    synchronized void flush(){
+        if(flushed)
+            return;
+        try{
+            writer.flush();
+            if(sync)
+                out.getFD().sync();
+            flushed = true;
+        }
+        catch(IOException e){
+            throw new IllegalStateException("Unable to write " + file, e);
+        }
+    }
+
+    /**
+     * Empty the log, such as for a new generation.
+     */
+    synchronized void clear(){
+        try{
+            writer.close();
+            open(false);
+            length = 0;
+        }
+        catch(IOException e){
+            throw new IllegalStateException("Unable to empty " + file, e);
+        }
+    }
+
+    /**
+     * Read back the log. Every finished job is given to the replay, followed
+     * by, in the order they were added, every job that was added but had not
+     * finished.
+     * @param replay Given the jobs of the log.
+     */
+    synchronized void replay(Replay<J> replay){
+        flush();
+        try{
+            Set<String> finished = new HashSet<>();
+            scan(finished);
+            read(FINISHED, null, replay);
+            read(ADDED, finished, replay);
+        }
+        catch(IOException|ClassNotFoundException e){
+            throw new IllegalStateException("Unable to read " + file, e);
+        }
+    }
+
+    /**
+     * Read the records of one kind from the log.
+     * @param tag The kind of record to read.
+     * @param skip The IDs of jobs to skip, or null to skip none. The IDs of
+     * the jobs read are added to it, so that each is only read once.
+     * @param replay Given each job read.
+     */
+    @SuppressWarnings("unchecked")
+    private void read(byte tag, Set<String> skip, Replay<J> replay) throws IOException, ClassNotFoundException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16))){
+            long at = 0;
+            while(at<length){
+                byte kind = in.readByte();
+                String jobID = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                at += recordLength(jobID, bytes.length);
+                if(kind!=tag||(skip!=null&&!skip.add(jobID)))
+                    continue;
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                J job = (J)ois.readObject();
+                if(kind==FINISHED)
+                    replay.finished(job);
+                else
+                    replay.added(job);
+            }
+        }
+    }
+
+    /**
+     * Read the headers of the records in the file, up to the last whole record.
+     * @param finished If not null, the IDs of the finished jobs are added to it.
+     * @return The length of the whole records.
+     */
+    private long scan(Set<String> finished) throws IOException {
+        long whole = 0;
+        long size = file.length();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16))){
+            while(true){
+                byte kind = in.readByte();
+                String jobID = in.readUTF();
+                int bytes = in.readInt();
+                if(bytes<0||(kind!=ADDED&&kind!=FINISHED))
+                    break;
+                long end = whole+recordLength(jobID, bytes);
+                if(end>size)
+                    break;
+                in.skipBytes(bytes);
+                whole = end;
+                if(finished!=null&&kind==FINISHED)
+                    finished.add(jobID);
+            }
+        }
+        catch(EOFException e){
+            //The last record was cut short
+        }
+        return whole;
+    }
+
+    private static long recordLength(String jobID, int bytes) throws IOException {
+        ByteArrayOutputStream id = new ByteArrayOutputStream();
+        new DataOutputStream(id).writeUTF(jobID);
+        return 1+id.size()+4+bytes;
+    }
+
+    /**
+     * Close the file. The log may not be used after this, but is kept so that
+     * it may be resumed from.
+     * @throws IOException If the file could not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Given the jobs of a log as it is read back.
+     * @param <J> The type of Job logged.
+     */
+    interface Replay<J extends Job> {
+
+        /**
+         * Given a job that finished.
+         * @param job The finished job.
+         */
+        void finished(J job);
+
+        /**
+         * Given a job that was added but had not finished.
+         * @param job The job.
+         */
+        void added(J job);
+    }
+
+}
@@ -0,0 +1,38 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A Job that may only be run once other Jobs have finished. Dispatchers hold
+ * back such a job until every job it depends upon has finished, then pass it
+ * the finished jobs and issue it, without waiting for the rest of the jobs
+ * added alongside it.
+ *
+ * A dependency is satisfied by a job with that ID that has already finished in
+ * the current generation, or that finishes after this job was added. When
+ * running continuously, or when finished jobs are not retained, finished jobs
+ * are not kept, so the jobs that a job depends upon should be added after it,
+ * or at the same time. If a generation runs out of other jobs while some are
+ * still waiting on jobs that were never added, or on each other, then those
+ * jobs are lost. A job that depends upon a lost job is lost too.
+ *
+ * @author gg32
+ */
+public interface DependentJob extends Job {
+
+    /**
+     * Get the IDs of the Jobs that must finish before this Job may be run.
+     * @return The IDs of the jobs this Job depends upon.
+     */
+    public Collection<String> getDependencies();
+
+    /**
+     * Called by the dispatcher with the finished jobs this Job depends upon,
+     * once they have all finished and before this Job is issued. When run on a
+     * cluster anything kept from them is serialised along with this Job.
+     * @param results A map of the ID of each job depended upon to the job.
+     */
+    public void setDependencyResults(Map<String, ? extends Job> results);
+
+}
@@ -0,0 +1,278 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map of finished Jobs that keeps them serialised in a file rather than in
+ * memory, so that a generation may have more results than would fit in the
+ * heap. Jobs are appended to the file as they are put, each as the length of
+ * its serialised form followed by the form itself, and only the position of
+ * each job in the file is kept in memory. A job is read back from the file
+ * each time it is got, so the jobs returned are copies, and changes to them
+ * are not kept.
+ *
+ * Removing a job only forgets it; the file is only emptied by clear.
+ *
+ * @author gg32
+ * @param <J> The type of Job stored.
+ * @see AbstractTaskDispatcher#setResultStore(Map)
+ */
+public class DiskResultStore<J extends Job> extends AbstractMap<String, J> implements Closeable {
+
+    private final File file;
+    private final boolean temporary;
+    /**
+     * The position in the file of each job.
+     */
+    private final Map<String, Long> index = new HashMap<>();
+    private RandomAccessFile reader;
+    private DataOutputStream writer;
+    /**
+     * The number of bytes written to the file, some of which may still be
+     * buffered in the writer.
+     */
+    private long length = 0;
+    private boolean flushed = true;
+
+    /**
+     * Create a store in a temporary file, which is deleted when the store is
+     * closed.
+     * @throws IOException If the file can not be created.
+     */
+    public DiskResultStore() throws IOException {
+        this(File.createTempFile("results", ".jobs"), true);
+    }
+
+    /**
+     * Create a store in the given file, replacing anything already in it.
+     * @param file The file to keep jobs in.
+     * @throws IOException If the file can not be created.
+     */
+    public DiskResultStore(File file) throws IOException {
+        this(file, false);
+    }
+
+    private DiskResultStore(File file, boolean temporary) throws IOException {
+        this.file = file;
+        this.temporary = temporary;
+        if(temporary)
+            file.deleteOnExit();
+        open();
+    }
+
+    /**
+     * Open the file, emptying it.
+     * @throws IOException If the file can not be opened.
+     */
+    private void open() throws IOException {
+        writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+        reader = new RandomAccessFile(file, "r");
+        length = 0;
+        flushed = true;
+    }
+
+    /**
+     * Append a job to the file.
+     * @param jobID The ID of the job.
+     * @param job The job.
+     * @return Always null, as the job previously stored is not read back.
+     */
+    @Override
+    public synchronized J put(String jobID, J job){
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(job);
+            oos.close();
+            writer.writeInt(bytes.size());
+            bytes.writeTo(writer);
+            index.put(jobID, length);
+            length += 4+bytes.size();
+            flushed = false;
+            return null;
+        }
+        catch(IOException e){
+            throw new IllegalStateException("Unable to store job " + jobID, e);
+        }
+    }
+
+    /**
+     * Read a job back from the file.
+     * @param key The ID of the job.
+     * @return A copy of the job, or null if there is none with that ID.
+     */
+    @Override
+    public synchronized J get(Object key){
+        Long position = index.get(key);
+        if(position==null)
+            return null;
+        return read((String)key, position);
+    }
+
+    @SuppressWarnings("unchecked")
+    private J read(String jobID, long position){
+        try{
+            if(!flushed){
+                writer.flush();
+                flushed = true;
+            }
+            reader.seek(position);
+            byte[] bytes = new byte[reader.readInt()];
+            reader.readFully(bytes);
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return (J)ois.readObject();
+        }
+        catch(IOException|ClassNotFoundException e){
+            throw new IllegalStateException("Unable to read job " + jobID, e);
+        }
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key){
+        return index.containsKey(key);
+    }
+
+    @Override
+    public synchronized int size(){
+        return index.size();
+    }
+
+    /**
+     * Forget a job. It is not read back, so null is always returned.
+     * @param key The ID of the job.
+     * @return null.
+     */
+    @Override
+    public synchronized J remove(Object key){
+        index.remove(key);
+        return null;
+    }
+
+    /**
+     * Forget every job, and empty the file.
+     */
+    @Override
+    public synchronized void clear(){
+        index.clear();
+        try{
+            writer.close();
+            reader.close();
+            open();
+        }
+        catch(IOException e){
+            throw new IllegalStateException("Unable to empty " + file, e);
+        }
+    }
+
+    /**
+     * The jobs in the store. Each job is only read from the file when the
+     * value of its entry is got.
+     * @return The entries of the store.
+     */
+    @Override
+    public Set<Map.Entry<String, J>> entrySet(){
+        return new AbstractSet<Map.Entry<String, J>>() {
+            @Override
+            public Iterator<Map.Entry<String, J>> iterator(){
+                final Iterator<Map.Entry<String, Long>> positions = index.entrySet().iterator();
+                return new Iterator<Map.Entry<String, J>>() {
+                    @Override
+                    public boolean hasNext(){
+                        return positions.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, J> next(){
+                        return new StoredEntry(positions.next());
+                    }
+
+                    @Override
+                    public void remove(){
+                        positions.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size(){
+                return DiskResultStore.this.size();
+            }
+        };
+    }
+
+    /**
+     * An entry of the store, whose job is read from the file each time its
+     * value is got.
+     */
+    private class StoredEntry implements Map.Entry<String, J> {
+        private final Map.Entry<String, Long> position;
+
+        StoredEntry(Map.Entry<String, Long> position){
+            this.position = position;
+        }
+
+        @Override
+        public String getKey(){
+            return position.getKey();
+        }
+
+        @Override
+        public J getValue(){
+            synchronized(DiskResultStore.this){
+                return read(position.getKey(), position.getValue());
+            }
+        }
+
+        @Override
+        public J setValue(J value){
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            J value = getValue();
+            return getKey().equals(e.getKey())
+                    &&(value==null ? e.getValue()==null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode(){
+            J value = getValue();
+            return getKey().hashCode()^(value==null ? 0 : value.hashCode());
+        }
+    }
+
+    /**
+     * Close the file, deleting it if it was temporary. The store may not be
+     * used after this.
+     * @throws IOException If the file could not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        index.clear();
+        writer.close();
+        reader.close();
+        if(temporary)
+            file.delete();
+    }
+
+}
@@ -0,0 +1,344 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timings of each stage of the dispatch of jobs, for a dispatcher as a whole
+ * and for each of its runners, so that it may be seen where the time goes.
+ * Times are recorded into a LatencyHistogram for each stage, and are reset
+ * with each new generation. They may be published as MBeans, and dumped
+ * periodically to a CSV file.
+ *
+ * The stages are:
+ * <ul>
+ * <li />{@link #QUEUE_WAIT} Waiting in the dispatcher to be issued.
+ * <li />{@link #SEND} Serialising and sending a job to a remote machine.
+ * <li />{@link #NETWORK} Travelling to the remote machine and back.
+ * <li />{@link #REMOTE_WAIT} Waiting on the remote machine to be run, or to be sent back.
+ * <li />{@link #EXECUTION} Running.
+ * <li />{@link #RECEIVE} Receiving and deserialising a finished job.
+ * <li />{@link #TURNAROUND} The whole time from being issued to being completed.
+ * </ul>
+ * Runners only record the stages that apply to them.
+ *
+ * @author gg32
+ * @see AbstractTaskDispatcher#getMetrics()
+ */
+public class DispatchMetrics implements DispatchMetricsMBean {
+
+    public static final String QUEUE_WAIT = "queueWait";
+    public static final String SEND = "send";
+    public static final String NETWORK = "network";
+    public static final String REMOTE_WAIT = "remoteWait";
+    public static final String EXECUTION = "execution";
+    public static final String RECEIVE = "receive";
+    public static final String TURNAROUND = "turnaround";
+
+    private static final String DOMAIN = "org.lambdaunbound.taskdispatcher";
+
+    private final AbstractTaskDispatcher<?,?> dispatcher;
+    private final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<AbstractTaskRunner<?>, RunnerMetrics> runners = new ConcurrentHashMap<>();
+    private final AtomicInteger runnerCount = new AtomicInteger();
+    /**
+     * When the first job of the generation was issued, or 0 if none has been.
+     */
+    private volatile long firstIssued = 0;
+    /**
+     * The name the MBeans are registered under, or null if they are not.
+     */
+    private String name = null;
+    private final List<ObjectName> registered = new ArrayList<>();
+    private Timer csvTimer = null;
+    private PrintWriter csv = null;
+
+    /**
+     * Create the metrics of a dispatcher.
+     * @param dispatcher The dispatcher.
+     */
+    DispatchMetrics(AbstractTaskDispatcher<?,?> dispatcher){
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Get the histogram of a stage, over all runners.
+     * @param stage The name of the stage.
+     * @return The histogram.
+     */
+    public LatencyHistogram getHistogram(String stage){
+        LatencyHistogram h = stages.get(stage);
+        if(h==null){
+            h = new LatencyHistogram(stage);
+            LatencyHistogram existing = stages.putIfAbsent(stage, h);
+            if(existing!=null)
+                return existing;
+            publish(h, null);
+        }
+        return h;
+    }
+
+    /**
+     * Get the histogram of a stage on a single runner.
+     * @param runner The runner.
+     * @param stage The name of the stage.
+     * @return The histogram.
+     */
+    public LatencyHistogram getHistogram(AbstractTaskRunner<?> runner, String stage){
+        RunnerMetrics rm = runners.get(runner);
+        if(rm==null){
+            rm = new RunnerMetrics(runner.getName() + "#" + runnerCount.incrementAndGet());
+            RunnerMetrics existing = runners.putIfAbsent(runner, rm);
+            if(existing!=null)
+                rm = existing;
+        }
+        LatencyHistogram h = rm.stages.get(stage);
+        if(h==null){
+            h = new LatencyHistogram(stage);
+            LatencyHistogram existing = rm.stages.putIfAbsent(stage, h);
+            if(existing!=null)
+                return existing;
+            publish(h, rm.name);
+        }
+        return h;
+    }
+
+    /**
+     * Record the time a job spent in a stage of the dispatcher.
+     * @param stage The name of the stage.
+     * @param nanos The time spent in nanoseconds.
+     */
+    void record(String stage, long nanos){
+        getHistogram(stage).record(nanos);
+    }
+
+    /**
+     * Record the time jobs spent in a stage of a runner, both for the runner
+     * and over all runners.
+     * @param runner The runner.
+     * @param stage The name of the stage.
+     * @param nanos The time spent by each job in nanoseconds.
+     * @param jobs The number of jobs that spent that time.
+     */
+    void record(AbstractTaskRunner<?> runner, String stage, long nanos, int jobs){
+        getHistogram(stage).record(nanos, jobs);
+        getHistogram(runner, stage).record(nanos, jobs);
+    }
+
+    /**
+     * Note that a job has been issued, to start the measure of throughput.
+     */
+    void issued(){
+        if(firstIssued==0)
+            firstIssued = System.nanoTime();
+    }
+
+    /**
+     * Forget all times recorded, at the start of a new generation.
+     */
+    void newGeneration(){
+        firstIssued = 0;
+        for(LatencyHistogram h : stages.values())
+            h.reset();
+        for(RunnerMetrics rm : runners.values()){
+            for(LatencyHistogram h : rm.stages.values())
+                h.reset();
+        }
+    }
+
+    @Override
+    public int getGeneration(){
+        return dispatcher.getProgress().getGeneration();
+    }
+
+    @Override
+    public long getAdded(){
+        return dispatcher.getProgress().getAdded();
+    }
+
+    @Override
+    public long getIssued(){
+        return dispatcher.getProgress().getIssued();
+    }
+
+    @Override
+    public long getCompleted(){
+        return dispatcher.getProgress().getCompleted();
+    }
+
+    @Override
+    public long getFailed(){
+        return dispatcher.getProgress().getFailed();
+    }
+
+    @Override
+    public long getLost(){
+        return dispatcher.getProgress().getLost();
+    }
+
+    @Override
+    public long getInFlight(){
+        return dispatcher.getProgress().getInFlight();
+    }
+
+    @Override
+    public double getJobsPerSecond(){
+        long start = firstIssued;
+        if(start==0)
+            return 0;
+        double seconds = (System.nanoTime()-start)/1e9;
+        return seconds<=0 ? 0 : getCompleted()/seconds;
+    }
+
+    /**
+     * Publish these metrics, and the histogram of every stage, as MBeans on
+     * the platform MBeanServer, in the org.lambdaunbound.taskdispatcher domain.
+     * Histograms of stages first recorded later are published as they appear.
+     * @param dispatcherName The name to distinguish this dispatcher's MBeans
+     * from those of any others.
+     * @throws JMException If the MBeans could not be registered.
+     */
+    public synchronized void registerMBeans(String dispatcherName) throws JMException {
+        unregisterMBeans();
+        name = dispatcherName;
+        register(this, new ObjectName(DOMAIN + ":type=Dispatcher,name=" + ObjectName.quote(name)));
+        for(LatencyHistogram h : stages.values())
+            publish(h, null);
+        for(RunnerMetrics rm : runners.values()){
+            for(LatencyHistogram h : rm.stages.values())
+                publish(h, rm.name);
+        }
+    }
+
+    /**
+     * Remove the MBeans of these metrics from the platform MBeanServer.
+     */
+    public synchronized void unregisterMBeans(){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName on : registered){
+            try{
+                server.unregisterMBean(on);
+            }
+            catch(JMException e){
+                //Already gone
+            }
+        }
+        registered.clear();
+        name = null;
+    }
+
+    /**
+     * Publish a histogram if the MBeans are being published.
+     * @param h The histogram.
+     * @param runner The name of the runner it is of, or null if it is over all.
+     */
+    private synchronized void publish(LatencyHistogram h, String runner){
+        if(name==null)
+            return;
+        try{
+            if(runner==null)
+                register(h, new ObjectName(DOMAIN + ":type=Latency,name=" + ObjectName.quote(name)
+                        + ",stage=" + h.getStage()));
+            else
+                register(h, new ObjectName(DOMAIN + ":type=RunnerLatency,name=" + ObjectName.quote(name)
+                        + ",runner=" + ObjectName.quote(runner) + ",stage=" + h.getStage()));
+        }
+        catch(JMException e){
+            e.printStackTrace();
+        }
+    }
+
+    private void register(Object mbean, ObjectName on) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, on);
+        registered.add(on);
+    }
+
+    /**
+     * Append a row for every histogram to a CSV file periodically, with the
+     * columns time, generation, runner, stage, count, mean, p50, p90, p99 and
+     * max, all times being in milliseconds. The runner is "all" for the
+     * histograms over all runners.
+     * @param file The file to append to.
+     * @param periodMillis The milliseconds between each dump.
+     * @throws IOException If the file can not be opened.
+     */
+    public synchronized void startCsvDump(File file, long periodMillis) throws IOException {
+        stopCsvDump();
+        boolean header = !file.exists()||file.length()==0;
+        final PrintWriter out = new PrintWriter(new FileWriter(file, true));
+        if(header)
+            out.println("time,generation,runner,stage,count,mean,p50,p90,p99,max");
+        out.flush();
+        csv = out;
+        csvTimer = new Timer("DispatchMetrics", true);
+        csvTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                dump(out);
+            }
+        }, periodMillis, periodMillis);
+    }
+
+    /**
+     * Stop dumping to a CSV file, after a last dump.
+     */
+    public synchronized void stopCsvDump(){
+        if(csvTimer==null)
+            return;
+        csvTimer.cancel();
+        dump(csv);
+        csv.close();
+        csvTimer = null;
+        csv = null;
+    }
+
+    private void dump(PrintWriter out){
+        synchronized(out){
+            dumpAll(out);
+        }
+    }
+
+    private void dumpAll(PrintWriter out){
+        long time = System.currentTimeMillis();
+        int generation = getGeneration();
+        for(Map.Entry<String, LatencyHistogram> e : stages.entrySet())
+            dump(out, time, generation, "all", e.getValue());
+        for(RunnerMetrics rm : runners.values()){
+            for(LatencyHistogram h : rm.stages.values())
+                dump(out, time, generation, rm.name, h);
+        }
+        out.flush();
+    }
+
+    private void dump(PrintWriter out, long time, int generation, String runner, LatencyHistogram h){
+        out.println(time + "," + generation + "," + runner + "," + h.getStage() + "," + h.getCount()
+                + "," + h.getMean() + "," + h.getP50() + "," + h.getP90() + "," + h.getP99() + "," + h.getMax());
+    }
+
+    /**
+     * The histograms of a single runner.
+     */
+    private static class RunnerMetrics {
+        final String name;
+        final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+
+        RunnerMetrics(String name){
+            this.name = name;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.lambdaunbound.taskdispatcher;
+
+/**
+ * The management interface of the metrics of a dispatcher, giving the counts
+ * of jobs in the current generation and their throughput.
+ *
+ * @author gg32
+ */
+public interface DispatchMetricsMBean {
+
+    /**
+     * Get the current generation.
+     * @return The generation.
+     */
+    public int getGeneration();
+
+    /**
+     * Get the number of jobs of this generation taken up by the dispatcher.
+     * @return The number of jobs added.
+     */
+    public long getAdded();
+
+    /**
+     * Get the number of times jobs of this generation have been issued.
+     * @return The number of jobs issued.
+     */
+    public long getIssued();
+
+    /**
+     * Get the number of jobs of this generation that have been completed.
+     * @return The number of jobs completed.
+     */
+    public long getCompleted();
+
+    /**
+     * Get the number of times jobs of this generation have failed.
+     * @return The number of failures.
+     */
+    public long getFailed();
+
+    /**
+     * Get the number of jobs of this generation that have been lost.
+     * @return The number of jobs lost.
+     */
+    public long getLost();
+
+    /**
+     * Get the number of jobs that have been issued and not yet returned.
+     * @return The number of jobs in flight.
+     */
+    public long getInFlight();
+
+    /**
+     * Get the number of jobs completed each second in this generation, since
+     * its first job was issued.
+     * @return The throughput in jobs per second.
+     */
+    public double getJobsPerSecond();
+
+}
@@ -0,0 +1,136 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One generation of jobs run by a pipelined dispatcher, and its results. A
+ * generation is done once it has been closed to new jobs by newGeneration, and
+ * every job added to it has finished or been lost. The jobs of later
+ * generations may be running before it is done.
+ *
+ * @author gg32
+ * @param <J> The type of Job run.
+ * @see AbstractTaskDispatcher#startPipelined()
+ */
+public class Generation<J extends Job> {
+
+    private final int number;
+    private final boolean keepFinished;
+    private final Map<String, J> finished = new ConcurrentHashMap<>();
+    private final Map<String, String> lost = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+    private boolean done = false;
+    private String error;
+    /**
+     * Jobs added to this generation that have not yet been taken up by the
+     * dispatching thread.
+     */
+    final Queue<J> submitted = new ConcurrentLinkedQueue<>();
+    /**
+     * Whether this generation has been closed to new jobs.
+     */
+    volatile boolean sealed = false;
+    /**
+     * The number of jobs taken up that have not yet finished or been lost.
+     * Only used by the dispatching thread.
+     */
+    int unfinished = 0;
+
+    Generation(int number, boolean keepFinished){
+        this.number = number;
+        this.keepFinished = keepFinished;
+    }
+
+    /**
+     * Get the number of this generation.
+     * @return The generation number.
+     */
+    public int getNumber(){
+        return number;
+    }
+
+    /**
+     * Get the finished jobs of this generation. These are only all there once
+     * the generation is done, and are not kept at all if the dispatcher does
+     * not retain finished jobs.
+     * @return A map of the ID of a job to the job itself.
+     * @see AbstractTaskDispatcher#setRetainFinishedJobs(boolean)
+     */
+    public Map<String, J> getFinishedJobs(){
+        return finished;
+    }
+
+    /**
+     * Get the jobs of this generation that were given up on.
+     * @return A map of the ID of each lost job to the reason it was lost, in
+     * the order they were lost.
+     */
+    public Map<String, String> getLostJobs(){
+        return Collections.unmodifiableMap(lost);
+    }
+
+    /**
+     * Whether every job of this generation has finished or been lost.
+     * @return True if this generation is done.
+     */
+    public synchronized boolean isDone(){
+        return done;
+    }
+
+    /**
+     * Wait until this generation is done.
+     * @return Returns true if there has been a failure, including if any jobs
+     * have been lost.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized boolean await() throws InterruptedException {
+        while(!done)
+            wait();
+        return error!=null||!lost.isEmpty();
+    }
+
+    /**
+     * If the dispatcher failed before this generation was done then return
+     * the cause of failure.
+     * @return The cause of failure, or null if there is none.
+     */
+    public synchronized String getError(){
+        return error;
+    }
+
+    void finished(J job){
+        if(keepFinished)
+            finished.put(job.getID(), job);
+        unfinished--;
+    }
+
+    void lost(String jobID, String reason){
+        lost.put(jobID, reason);
+        unfinished--;
+    }
+
+    void cancelled(){
+        unfinished--;
+    }
+
+    synchronized void complete(){
+        done = true;
+        notifyAll();
+    }
+
+    synchronized void fail(String error){
+        this.error = error;
+        complete();
+    }
+
+    @Override
+    public String toString(){
+        return "Generation " + number + ": " + finished.size() + " jobs finished, "
+                + lost.size() + " lost, " + (isDone() ? "done" : unfinished + " unfinished");
+    }
+
+}
@@ -0,0 +1,257 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets a running job split its work into child jobs, fork them to be run in
+ * parallel, and join on them to get their results. This suits recursive work,
+ * such as building a tree, whose shape is not known until it is run.
+ *
+ * Children are run in the same VM as the job that forked them, on whichever
+ * machine that is. If the job is being run by a ForkJoinPool, as it is by the
+ * ForkJoinDispatcher, the children are pushed onto the queue of its thread,
+ * from which idle threads of the pool steal them. Otherwise they are run by a
+ * pool shared by all the jobs of the VM. A job that joins on a child that has
+ * not yet been started runs it itself, rather than waiting, whichever thread
+ * it is run by.
+ *
+ * A context is only to be used by the thread running its job. The children are
+ * not seen by the dispatcher, so are not retried, checkpointed or counted; a
+ * child that fails fails the job that joins on it, which may then be retried.
+ *
+ * @author gg32
+ * @see #current()
+ */
+public class JobContext {
+
+    private static final ThreadLocal<JobContext> current = new ThreadLocal<>();
+    private static ForkJoinPool shared;
+
+    private final String jobID;
+    /**
+     * The children forked and not yet joined.
+     */
+    private final Set<Fork<?>> forks = new HashSet<>();
+
+    private JobContext(String jobID){
+        this.jobID = jobID;
+    }
+
+    /**
+     * Get the context of the job running on this thread. If no job is being
+     * run, a new context is returned, so that work may also be forked from
+     * outside a job.
+     * @return The context of the running job.
+     */
+    public static JobContext current(){
+        JobContext context = current.get();
+        return context!=null ? context : new JobContext(null);
+    }
+
+    /**
+     * Run a job on this thread, with a context of its own. Called by the
+     * runners for each job they run. Any children the job did not join are
+     * cancelled once it has finished, if they have not been started.
+     * @param job The job to run.
+     */
+    public static void run(Job job){
+        JobContext outer = current.get();
+        JobContext context = new JobContext(job.getID());
+        current.set(context);
+        try{
+            job.run();
+        }
+        finally{
+            context.abandon();
+            if(outer!=null)
+                current.set(outer);
+            else
+                current.remove();
+        }
+    }
+
+    /**
+     * Get the ID of the job this context belongs to.
+     * @return The ID of the job, or null if this context was got from outside
+     * a job.
+     */
+    public String getJobID(){
+        return jobID;
+    }
+
+    /**
+     * Fork a child job to be run in parallel with the rest of this job.
+     * @param <C> The type of the child job.
+     * @param child The child job.
+     * @return The fork, to be joined on for the child once finished.
+     */
+    public <C extends Job> Fork<C> fork(C child){
+        Fork<C> fork = new Fork<>(this, child);
+        forks.add(fork);
+        if(ForkJoinTask.inForkJoinPool())
+            fork.task.fork();
+        else
+            sharedPool().execute(fork.task);
+        return fork;
+    }
+
+    /**
+     * Run every child job in parallel, and wait for all of them to finish.
+     * The last child is run on this thread.
+     * @param children The child jobs.
+     * @throws RuntimeException If a child failed, the first failure is
+     * thrown once all of the children have finished.
+     */
+    public void invokeAll(Collection<? extends Job> children){
+        List<Fork<?>> forked = new ArrayList<>(children.size());
+        Job last = null;
+        for(Job child : children){
+            if(last!=null)
+                forked.add(fork(last));
+            last = child;
+        }
+        RuntimeException failure = null;
+        if(last!=null){
+            try{
+                run(last);
+            }
+            catch(RuntimeException e){
+                failure = e;
+            }
+        }
+        //Join the most recently forked first, as they are the least likely to have been stolen
+        for(int i=forked.size()-1;i>=0;i--){
+            try{
+                forked.get(i).join();
+            }
+            catch(RuntimeException e){
+                if(failure==null)
+                    failure = e;
+            }
+        }
+        if(failure!=null)
+            throw failure;
+    }
+
+    private void abandon(){
+        for(Fork<?> fork : forks){
+            fork.task.cancel(false);
+        }
+        forks.clear();
+    }
+
+    private static synchronized ForkJoinPool sharedPool(){
+        if(shared==null)
+            shared = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return shared;
+    }
+
+    /**
+     * A child job that has been forked.
+     * @param <C> The type of the child job.
+     */
+    public static class Fork<C extends Job> {
+
+        private final JobContext context;
+        private final C child;
+        private final Task<C> task;
+
+        private Fork(JobContext context, C child){
+            this.context = context;
+            this.child = child;
+            task = new Task<>(child);
+        }
+
+        /**
+         * Wait for the child to finish, running it on this thread if it has
+         * not yet been started.
+         * @return The finished child, with its results.
+         * @throws RuntimeException If the child failed, what it threw.
+         * @throws java.util.concurrent.CancellationException If the child was
+         * cancelled.
+         */
+        public C join(){
+            context.forks.remove(this);
+            //A thread outside a pool would otherwise only wait for a pool thread to run it
+            if(!ForkJoinTask.inForkJoinPool()&&task.claim()){
+                try{
+                    JobContext.run(child);
+                }
+                catch(RuntimeException|Error e){
+                    task.completeExceptionally(e);
+                    throw e;
+                }
+                task.complete(child);
+                return child;
+            }
+            return task.join();
+        }
+
+        /**
+         * Whether the child has finished, failed or been cancelled.
+         * @return True if the child is done.
+         */
+        public boolean isDone(){
+            return task.isDone();
+        }
+
+        /**
+         * Get the child job, whose results are only set once it has been
+         * joined.
+         * @return The child job.
+         */
+        public C getJob(){
+            return child;
+        }
+    }
+
+    /**
+     * Runs a child job in a pool, unless it has already been claimed by the
+     * thread joining on it.
+     * @param <C> The type of the child job.
+     */
+    private static class Task<C extends Job> extends ForkJoinTask<C> {
+
+        private static final long serialVersionUID = 1L;
+        private final C child;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Task(C child){
+            this.child = child;
+        }
+
+        /**
+         * Claim the child to be run, unless it has been started or cancelled.
+         * @return True if this is the only claim on it.
+         */
+        boolean claim(){
+            return !isDone()&&claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public C getRawResult(){
+            return child;
+        }
+
+        @Override
+        protected void setRawResult(C value){
+        }
+
+        @Override
+        protected boolean exec(){
+            //Completed by the thread that claimed it instead
+            if(!claim())
+                return false;
+            JobContext.run(child);
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of a single Job submitted to a dispatcher. It is completed
+ * by the dispatching thread as soon as the job has finished, so it may be waited
+ * upon by other threads while the dispatcher is still running.
+ *
+ * @param <J> The type of Job this is the result of.
+ * @see AbstractTaskDispatcher#submit(Job)
+ * @author gg32
+ */
+public class JobFuture<J extends Job> implements Future<J> {
+
+    private final String jobID;
+    private final AbstractTaskDispatcher<?,?> dispatcher;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile J job;
+    private volatile String error;
+    private volatile boolean cancelled;
+
+    /**
+     * Create a future for the job with the given ID.
+     * @param jobID The ID of the job.
+     * @param dispatcher The dispatcher the job was submitted to.
+     */
+    JobFuture(String jobID, AbstractTaskDispatcher<?,?> dispatcher){
+        this.jobID = jobID;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Get the ID of the job this future represents.
+     * @return The ID of the job.
+     */
+    public String getID(){
+        return jobID;
+    }
+
+    /**
+     * Complete this future with the finished job.
+     * @param finished The finished job.
+     */
+    synchronized void finish(J finished){
+        if(isDone())
+            return;
+        job = finished;
+        done.countDown();
+    }
+
+    /**
+     * Complete this future with the reason the job could not be finished.
+     * @param reason The cause of failure.
+     */
+    synchronized void fail(String reason){
+        if(isDone())
+            return;
+        error = reason;
+        done.countDown();
+    }
+
+    /**
+     * Complete this future as cancelled, once the job has been cancelled by
+     * the dispatcher.
+     * @return False if this future had already been completed.
+     */
+    synchronized boolean cancelled(){
+        if(isDone())
+            return false;
+        cancelled = true;
+        done.countDown();
+        return true;
+    }
+
+    /**
+     * Cancel the job, so that it is not run, or if it is already running,
+     * so that its result is discarded.
+     * @param mayInterruptIfRunning Whether a running job should be stopped,
+     * rather than left to finish.
+     * @return False if the job had already finished or failed.
+     * @see AbstractTaskDispatcher#cancel(String)
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning){
+        if(!cancelled())
+            return false;
+        dispatcher.cancel(jobID, mayInterruptIfRunning);
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone(){
+        return done.getCount()==0;
+    }
+
+    /**
+     * Wait for the job to finish.
+     * @return The finished job.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws ExecutionException If the job could not be finished.
+     */
+    @Override
+    public J get() throws InterruptedException, ExecutionException{
+        done.await();
+        return result();
+    }
+
+    @Override
+    public J get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException{
+        if(!done.await(timeout, unit))
+            throw new TimeoutException("Job " + jobID + " has not finished");
+        return result();
+    }
+
+    private J result() throws ExecutionException{
+        if(cancelled)
+            throw new CancellationException("Job " + jobID + " was cancelled");
+        if(error!=null)
+            throw new ExecutionException(new IllegalStateException("Job " + jobID + " failed: " + error));
+        return job;
+    }
+
+}
@@ -0,0 +1,21 @@
+package org.lambdaunbound.taskdispatcher;
+
+/**
+ * An interface through which a dispatcher streams its finished Jobs, in the
+ * order in which they are completed.
+ *
+ * @param <J> The type of Job listened for.
+ * @see AbstractTaskDispatcher#addJobListener(JobListener)
+ * @author gg32
+ */
+public interface JobListener<J extends Job> {
+
+    /**
+     * Called once for each job as soon as it has finished. This is called on
+     * the dispatching thread, so should return quickly; no further jobs will be
+     * issued until it does.
+     * @param job The finished job.
+     */
+    void jobFinished(J job);
+
+}
@@ -0,0 +1,56 @@
+package org.lambdaunbound.taskdispatcher;
+
+/**
+ * A JobListener that folds each finished Job into a running result as soon as
+ * it finishes, such as a best score or a histogram. Used along with
+ * {@link AbstractTaskDispatcher#setRetainFinishedJobs(boolean)} the finished
+ * jobs need never be held all at once, however many there are.
+ *
+ * Jobs are reduced on the dispatching thread, so reduce should return quickly.
+ *
+ * @param <J> The type of Job reduced.
+ * @param <A> The type of the result.
+ * @author gg32
+ */
+public abstract class JobReducer<J extends Job, A> implements JobListener<J> {
+
+    private volatile A result;
+
+    /**
+     * Create a reducer starting from the given result.
+     * @param initial The result before any jobs have finished.
+     */
+    public JobReducer(A initial){
+        result = initial;
+    }
+
+    /**
+     * Fold a finished job into the result so far.
+     * @param result The result so far.
+     * @param job The finished job.
+     * @return The new result, which may be the same object updated in place.
+     */
+    protected abstract A reduce(A result, J job);
+
+    @Override
+    public final void jobFinished(J job){
+        result = reduce(result, job);
+    }
+
+    /**
+     * Get the result of reducing the jobs finished so far.
+     * @return The result.
+     */
+    public A getResult(){
+        return result;
+    }
+
+    /**
+     * Start again from the given result, such as before a new generation.
+     * @param initial The result before any jobs have finished.
+     */
+    public void reset(A initial){
+        result = initial;
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of the times taken by one stage of the dispatch of jobs. Times
+ * are counted in buckets that grow exponentially, four to each power of two
+ * nanoseconds, so percentiles are accurate to within a quarter of their value
+ * while recording a time takes only a few atomic increments. Times may be
+ * recorded from any thread.
+ *
+ * @author gg32
+ * @see DispatchMetrics
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BUCKETS = 4;
+    private final String stage;
+    private final AtomicLongArray buckets = new AtomicLongArray(64*SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Create an empty histogram.
+     * @param stage The name of the stage timed.
+     */
+    LatencyHistogram(String stage){
+        this.stage = stage;
+    }
+
+    /**
+     * Record a time.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void record(long nanos){
+        record(nanos, 1);
+    }
+
+    /**
+     * Record the same time a number of times, such as the share of each job
+     * of the time taken by a batch of them.
+     * @param nanos The time taken, in nanoseconds.
+     * @param times The number of times to record it.
+     */
+    public void record(long nanos, int times){
+        if(times<=0)
+            return;
+        if(nanos<0)
+            nanos = 0;
+        buckets.addAndGet(bucket(nanos), times);
+        count.addAndGet(times);
+        total.addAndGet(nanos*times);
+        long m;
+        while(nanos>(m = max.get())&&!max.compareAndSet(m, nanos));
+    }
+
+    /**
+     * Forget all the times recorded.
+     */
+    public void reset(){
+        for(int i=0;i<buckets.length();i++)
+            buckets.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    private static int bucket(long nanos){
+        if(nanos<SUB_BUCKETS)
+            return (int)nanos;
+        int exp = 63-Long.numberOfLeadingZeros(nanos);
+        int sub = (int)(nanos>>>(exp-2))&(SUB_BUCKETS-1);
+        return exp*SUB_BUCKETS+sub;
+    }
+
+    /**
+     * The largest time counted in a bucket.
+     * @param bucket The bucket.
+     * @return Its upper bound in nanoseconds.
+     */
+    private static long upperBound(int bucket){
+        if(bucket<SUB_BUCKETS)
+            return bucket;
+        int exp = bucket/SUB_BUCKETS;
+        int sub = bucket%SUB_BUCKETS;
+        return ((long)(SUB_BUCKETS+sub+1)<<(exp-2))-1;
+    }
+
+    /**
+     * Get the time that the given fraction of recorded times are within.
+     * @param fraction The fraction, between 0 and 1.
+     * @return The time in nanoseconds, or 0 if none have been recorded.
+     */
+    public long percentile(double fraction){
+        long n = count.get();
+        if(n==0)
+            return 0;
+        long rank = (long)Math.ceil(fraction*n);
+        long seen = 0;
+        for(int i=0;i<buckets.length();i++){
+            seen += buckets.get(i);
+            if(seen>=rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public String getStage(){
+        return stage;
+    }
+
+    @Override
+    public long getCount(){
+        return count.get();
+    }
+
+    @Override
+    public double getMean(){
+        long n = count.get();
+        return n==0 ? 0 : total.get()/(double)n/1e6;
+    }
+
+    @Override
+    public double getMax(){
+        return max.get()/1e6;
+    }
+
+    @Override
+    public double getP50(){
+        return percentile(0.5)/1e6;
+    }
+
+    @Override
+    public double getP90(){
+        return percentile(0.9)/1e6;
+    }
+
+    @Override
+    public double getP99(){
+        return percentile(0.99)/1e6;
+    }
+
+}
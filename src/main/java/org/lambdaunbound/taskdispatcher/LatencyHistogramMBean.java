@@ -0,0 +1,53 @@
+package org.lambdaunbound.taskdispatcher;
+
+/**
+ * The management interface of a LatencyHistogram. All times are in
+ * milliseconds.
+ *
+ * @author gg32
+ */
+public interface LatencyHistogramMBean {
+
+    /**
+     * Get the stage of the dispatch of a job that is timed.
+     * @return The name of the stage.
+     */
+    public String getStage();
+
+    /**
+     * Get the number of times recorded.
+     * @return The number of times.
+     */
+    public long getCount();
+
+    /**
+     * Get the mean time recorded.
+     * @return The mean in milliseconds, or 0 if none have been recorded.
+     */
+    public double getMean();
+
+    /**
+     * Get the longest time recorded.
+     * @return The maximum in milliseconds.
+     */
+    public double getMax();
+
+    /**
+     * Get the median time recorded.
+     * @return The median in milliseconds.
+     */
+    public double getP50();
+
+    /**
+     * Get the time that 90% of recorded times are within.
+     * @return The 90th percentile in milliseconds.
+     */
+    public double getP90();
+
+    /**
+     * Get the time that 99% of recorded times are within.
+     * @return The 99th percentile in milliseconds.
+     */
+    public double getP99();
+
+}
@@ -0,0 +1,36 @@
+package org.lambdaunbound.taskdispatcher;
+
+/**
+ * A Job that carries hints as to the order in which it should be issued.
+ * Dispatchers issue waiting jobs highest priority first, then those with the
+ * earliest deadline, then those that are expected to take longest. Jobs that
+ * are equal in all three are issued in the order they were added. Jobs that do
+ * not implement this interface are treated as having a priority of 0, no
+ * deadline and no estimated cost.
+ *
+ * @author gg32
+ */
+public interface PrioritisedJob extends Job {
+
+    /**
+     * Get the priority of this Job. Higher priority jobs are issued first.
+     * @return The priority of this Job.
+     */
+    public int getPriority();
+
+    /**
+     * Get the time by which this Job should be finished, in milliseconds as given
+     * by {@link System#currentTimeMillis()}.
+     * @return The deadline of this Job, or Long.MAX_VALUE if it has none.
+     */
+    public long getDeadline();
+
+    /**
+     * Get an estimate of how long this Job will take to run. Only the relative
+     * size of estimates matters, so any unit may be used as long as it is the
+     * same for all jobs.
+     * @return The estimated cost of this Job, or 0 if unknown.
+     */
+    public long getEstimatedCost();
+
+}
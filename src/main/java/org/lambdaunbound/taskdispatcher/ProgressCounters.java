@@ -0,0 +1,145 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of the jobs that have passed through a dispatcher in one generation,
+ * or through one runner. The counts are only changed by the dispatching thread,
+ * but may be read from any thread at any time, so that progress may be sampled
+ * without being sent a message for every job.
+ *
+ * @author gg32
+ * @see AbstractTaskDispatcher#getProgress()
+ * @see AbstractTaskRunner#getProgress()
+ */
+public class ProgressCounters {
+
+    private final int generation;
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong inFlight;
+
+    /**
+     * Create counters for a generation.
+     * @param generation The generation counted, or -1 for counters that span
+     * generations.
+     * @param inFlight The number of jobs already issued and not yet returned.
+     */
+    ProgressCounters(int generation, long inFlight){
+        this.generation = generation;
+        this.inFlight = new AtomicLong(inFlight);
+    }
+
+    /**
+     * Get the generation counted.
+     * @return The generation, or -1 if these counters span generations.
+     */
+    public int getGeneration(){
+        return generation;
+    }
+
+    /**
+     * Get the number of jobs that have been taken up by the dispatcher.
+     * @return The number of jobs added.
+     */
+    public long getAdded(){
+        return added.get();
+    }
+
+    /**
+     * Get the number of times jobs have been issued, including copies and
+     * jobs issued again after being given back or failing.
+     * @return The number of jobs issued.
+     */
+    public long getIssued(){
+        return issued.get();
+    }
+
+    /**
+     * Get the number of jobs that have been completed.
+     * @return The number of jobs completed.
+     */
+    public long getCompleted(){
+        return completed.get();
+    }
+
+    /**
+     * Get the number of times jobs have failed, including failures that were
+     * then retried.
+     * @return The number of failures.
+     */
+    public long getFailed(){
+        return failed.get();
+    }
+
+    /**
+     * Get the number of jobs that have been given up on.
+     * @return The number of jobs lost.
+     */
+    public long getLost(){
+        return lost.get();
+    }
+
+    /**
+     * Get the number of jobs that have been cancelled before they finished.
+     * @return The number of jobs cancelled.
+     */
+    public long getCancelled(){
+        return cancelled.get();
+    }
+
+    /**
+     * Get the number of jobs, including copies, that have been issued and not
+     * yet finished, failed or been given back.
+     * @return The number of jobs in flight.
+     */
+    public long getInFlight(){
+        return inFlight.get();
+    }
+
+    void added(){
+        added.incrementAndGet();
+    }
+
+    void issued(){
+        issued.incrementAndGet();
+        inFlight.incrementAndGet();
+    }
+
+    void returned(){
+        inFlight.decrementAndGet();
+    }
+
+    void completed(){
+        completed.incrementAndGet();
+    }
+
+    void failed(){
+        failed.incrementAndGet();
+    }
+
+    void lost(){
+        lost.incrementAndGet();
+    }
+
+    void cancelled(){
+        cancelled.incrementAndGet();
+    }
+
+    @Override
+    public String toString(){
+        if(generation<0)
+            return getCompleted() + " of " + getIssued() + " jobs issued completed, "
+                    + getInFlight() + " in flight, " + getFailed() + " failed";
+        return "Generation " + generation + ": "
+                + getCompleted() + " of " + getAdded() + " jobs completed, "
+                + getInFlight() + " in flight, "
+                + getFailed() + " failed, " + getLost() + " lost, "
+                + getCancelled() + " cancelled";
+    }
+
+}
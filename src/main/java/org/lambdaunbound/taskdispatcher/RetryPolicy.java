@@ -0,0 +1,94 @@
+package org.lambdaunbound.taskdispatcher;
+
+/**
+ * Decides how many times a failed Job is run again, and how long the dispatcher
+ * waits before doing so. Each retry is issued to a different runner from the
+ * one it last failed on, if another has space for it. A job that fails on its
+ * last attempt is lost; the rest of the jobs carry on, but the generation is
+ * reported as having failed once they have finished.
+ *
+ * The delay before each retry doubles, starting from the given backoff, up to
+ * the given maximum. A job may also be given a timeout, after which it is
+ * stopped and treated as having failed. Subclasses may override the methods
+ * of this class to give different jobs different policies.
+ *
+ * @author gg32
+ * @see AbstractTaskDispatcher#setRetryPolicy(RetryPolicy)
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long backoff;
+    private final long maxBackoff;
+    private final long timeout;
+
+    /**
+     * Create a policy with no delay between attempts.
+     * @param maxAttempts The most times a job is run, including its first.
+     */
+    public RetryPolicy(int maxAttempts){
+        this(maxAttempts, 0, 0);
+    }
+
+    /**
+     * Create a policy with an increasing delay between attempts.
+     * @param maxAttempts The most times a job is run, including its first.
+     * @param backoff The milliseconds to wait before the first retry.
+     * @param maxBackoff The most milliseconds to wait before any retry.
+     */
+    public RetryPolicy(int maxAttempts, long backoff, long maxBackoff){
+        this(maxAttempts, backoff, maxBackoff, 0);
+    }
+
+    /**
+     * Create a policy with an increasing delay between attempts, and a limit
+     * on how long each attempt may take.
+     * @param maxAttempts The most times a job is run, including its first.
+     * @param backoff The milliseconds to wait before the first retry.
+     * @param maxBackoff The most milliseconds to wait before any retry.
+     * @param timeout The most milliseconds each attempt may take, or 0 for no
+     * limit.
+     */
+    public RetryPolicy(int maxAttempts, long backoff, long maxBackoff, long timeout){
+        if(maxAttempts<1)
+            throw new IllegalArgumentException("A job must be attempted at least once");
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get the most times a job may be run, including its first.
+     * @param job The job that has failed.
+     * @return The most attempts at the job.
+     */
+    public int getMaxAttempts(Job job){
+        return maxAttempts;
+    }
+
+    /**
+     * Get how long to wait before running a job again.
+     * @param job The job that has failed.
+     * @param failures The number of times it has failed, at least 1.
+     * @return The milliseconds to wait.
+     */
+    public long getBackoff(Job job, int failures){
+        long delay = backoff;
+        for(int i=1;i<failures&&delay<maxBackoff;i++)
+            delay *= 2;
+        return Math.min(delay, Math.max(backoff, maxBackoff));
+    }
+
+    /**
+     * Get how long an attempt at a job may take before it is stopped and
+     * treated as having failed. This is measured from when the job is issued
+     * to a runner, so includes any time it spends queued there.
+     * @param job The job being issued.
+     * @return The milliseconds the attempt may take, or 0 for no limit.
+     */
+    public long getTimeout(Job job){
+        return timeout;
+    }
+
+}
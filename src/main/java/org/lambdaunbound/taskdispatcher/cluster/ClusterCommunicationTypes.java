@@ -49,5 +49,47 @@ public enum ClusterCommunicationTypes {
      * This failure will usually be down to an error in the properties.
      * The message should be JOB_FAILED +jobID+error_description;
      */
-    JOB_FAILED
+    JOB_FAILED,
+    /**
+     * NEW_JOBS is sent from the Runner to a Stub to issue several jobs at once.
+     * The complete message should be NEW_JOBS followed by an ArrayList of the
+     * Jobs to be run;
+     */
+    NEW_JOBS,
+    /**
+     * FINISHED_JOBS is sent from the Stub to the Runner with every job that has
+     * been completed since the last was sent. The message should be
+     * FINISHED_JOBS followed by an ArrayList of the Jobs, then a long[] of the
+     * nanoseconds each Job spent running, then a long[] of the nanoseconds
+     * between each Job being received and being sent back;
+     */
+    FINISHED_JOBS,
+    /**
+     * REVOKE_JOBS is sent from the Runner to the Stub to ask for jobs that have
+     * not yet been started to be given back. The message should be REVOKE_JOBS
+     * followed by Integer.valueOf(max_jobs). The Stub must always reply with
+     * JOBS_REVOKED, even if no jobs could be given back.
+     */
+    REVOKE_JOBS,
+    /**
+     * JOBS_REVOKED is sent from the Stub to the Runner in reply to REVOKE_JOBS.
+     * The jobs given back will not be run by the Stub. The message should be
+     * JOBS_REVOKED followed by an ArrayList of the IDs of the jobs given back;
+     */
+    JOBS_REVOKED,
+    /**
+     * CANCEL_JOB is sent from the Runner to the Stub when a job is no longer
+     * wanted. The Stub should drop the job if it has not been started, or
+     * otherwise interrupt the thread running it. The message should be
+     * CANCEL_JOB followed by the ID of the job;
+     */
+    CANCEL_JOB,
+    /**
+     * JOB_CANCELLED is sent from the Stub to the Runner once a job it was asked
+     * to cancel will not be run, or has stopped, in place of FINISHED_JOBS or
+     * JOB_FAILED. Nothing is sent in reply to CANCEL_JOB if the job has already
+     * been sent back. The message should be JOB_CANCELLED followed by the ID
+     * of the job;
+     */
+    JOB_CANCELLED
 }
@@ -1,14 +1,22 @@
 package org.lambdaunbound.taskdispatcher.cluster;
 
+import org.lambdaunbound.taskdispatcher.BlockingThreads;
 import org.lambdaunbound.taskdispatcher.Job;
+import org.lambdaunbound.taskdispatcher.JobContext;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Create the process that runs on a remote machine on a cluster and listens and
@@ -23,24 +31,49 @@ import java.util.concurrent.Executors;
  */
 public class ClusterStub {
 
+    /**
+     * Queued to the MessageSender to have it stop once everything before it
+     * has been sent.
+     */
+    private static final Object STOP = new Object();
     
     private Socket socket;
 	private ObjectInputStream in;
 	private ObjectOutputStream out;
     private ExecutorService threadpool;
-    private ConcurrentLinkedQueue<ArrayList<Object>> outMessages;
+    private int blockingJobs = 0;
+    /**
+     * Messages waiting to be sent. Each is either an ArrayList of objects to
+     * be sent in order, or a finished StubJob to be sent in a FINISHED_JOBS
+     * message along with any other finished jobs waiting.
+     */
+    private LinkedBlockingQueue<Object> outMessages;
     private MessageSender messageSender;
+    /**
+     * Jobs that have been submitted to the threadpool but not yet started, in
+     * the order they were received. A job is only run if it can be claimed
+     * from here, so those that are revoked will never be run.
+     */
+    private final Map<String, Runnable> queued = new LinkedHashMap<>();
+    /**
+     * Jobs that are being run, guarded by the queued collection.
+     */
+    private final Map<String, StubJob> running = new HashMap<>();
     
     /**
      * Creates a new ClusterStub if the hostname and port number are given as args.
+     * They may be followed by the number of blocking jobs to run at once.
      * @param args 
+     * @see #setBlockingJobs(int)
      */
     public static void main(String[] args){
-        if(args.length!=2){
+        if(args.length!=2&&args.length!=3){
             System.err.println("Incorrect Invocation\nEvoClusterStub requires a hostname and socket number");
             return;
         }
         ClusterStub ecs = new ClusterStub();
+        if(args.length==3)
+            ecs.setBlockingJobs(Integer.parseInt(args[2]));
         ecs.setSocket(args[0], Integer.parseInt(args[1]));
         ecs.start();
     }
@@ -70,20 +103,39 @@ public class ClusterStub {
 				case NEW_JOB:{
 					Object o = getInput();
 					if(o instanceof Job){
-						final Job job = (Job)o;
-						Runnable r = new Runnable() {
-							@Override
-							public void run() {
-								job.run();
-								finished(job);
-							}
-						};
-						threadpool.submit(r);
+						submit((Job)o, System.nanoTime());
 					}
 					else{
 						throw new ClassCastException("Not A Job!");
 					}
                     break;
+                }
+				case NEW_JOBS:{
+					Object o = getInput();
+					long received = System.nanoTime();
+					if(o instanceof List<?>){
+						for(Object job : (List<?>)o){
+							if(job instanceof Job)
+								submit((Job)job, received);
+							else
+								throw new ClassCastException("Not A Job!");
+						}
+					}
+					else{
+						throw new ClassCastException("Not A List of Jobs!");
+					}
+                    break;
+                }
+                case REVOKE_JOBS:{
+                    Object o = getInput();
+                    revoke(o instanceof Integer ? (Integer)o : 0);
+                    break;
+                }
+                case CANCEL_JOB:{
+                    Object o = getInput();
+                    if(o instanceof String)
+                        cancel((String)o);
+                    break;
                 }
                 case FINISHED:{
                     send(ClusterCommunicationTypes.FINISHED);
@@ -91,36 +143,49 @@ public class ClusterStub {
                     break outer;
                 }
 			case FINISHED_JOB:
+			case FINISHED_JOBS:
 			case FINISHED_SEED:
 			case JOB_FAILED:
+			case JOBS_REVOKED:
+			case JOB_CANCELLED:
 				throw new Error("This message should not have been sent to the runner!\n" + mType);
             }
         }
+        threadpool.shutdownNow();
+        messageSender.finish();
         try{
             in.close();
-            out.flush();
             out.close();
         }
         catch(IOException e){
             System.out.println("Gone wrong");
-			System.exit(0);
+            safe = false;
         }
         finally{
             System.out.println("Closing down");
-            threadpool.shutdownNow();
-            messageSender.live=false;
-            messageSender.thread.interrupt();
         }
 		return safe;
     }
     
+    /**
+     * Queue a job received from the Runner to be run by the threadpool.
+     * @param job The job to run.
+     * @param received When the job was received, as given by System.nanoTime().
+     */
+    private void submit(Job job, long received){
+        StubJob r = new StubJob(job, received);
+        synchronized(queued){
+            queued.put(job.getID(), r);
+        }
+        threadpool.submit(r);
+    }
+    
     /**
      * Adds the given message list to a the queue of messages to be sent.
      * @param message The list of messages to send.
      */
     private void send(ArrayList<Object> message){
         outMessages.add(message);
-        messageSender.thread.interrupt();
     }
     
     /**
@@ -146,6 +211,20 @@ public class ClusterStub {
         }
     }
     
+    /**
+     * Run jobs that spend most of their time waiting, rather than computing,
+     * so that many more may be run at once than there are processing elements.
+     * They are run on virtual threads where the VM has them. The number of
+     * jobs is reported to the dispatcher in place of the number of processing
+     * elements. Must be called before the socket is set.
+     * @param jobs The most jobs to run at once, or 0 to run one for each
+     * processing element, as by default.
+     * @see BlockingThreads
+     */
+    public void setBlockingJobs(int jobs){
+        blockingJobs = jobs;
+    }
+    
     /**
      * Set up this ClusterStub to connect to the given address. Will also setup
      * the MessageSender thread and then report back the number of processing 
@@ -160,12 +239,14 @@ public class ClusterStub {
         try{
             //Socket and connections
             socket = new Socket(hostname, socketnum);
-			out = new ObjectOutputStream(socket.getOutputStream());
+            socket.setTcpNoDelay(true);
+			out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
 			out.writeObject("Need to send an object to make sure it all works");
-			in = new ObjectInputStream(socket.getInputStream());
+			out.flush();
+			in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
             //Setup the thread to send messages
             //(the main thread will be listening)
-            outMessages = new ConcurrentLinkedQueue<>();
+            outMessages = new LinkedBlockingQueue<>();
             messageSender = new MessageSender();
             messageSender.thread = new Thread(messageSender);
             messageSender.thread.start();
@@ -173,7 +254,12 @@ public class ClusterStub {
             //The number of threads we should use
             int processingElements = Runtime.getRuntime().availableProcessors();
             //if(processingElements>2)processingElements--;
-            threadpool = Executors.newFixedThreadPool(processingElements);
+            if(blockingJobs>0){
+                processingElements = blockingJobs;
+                threadpool = BlockingThreads.newPool(blockingJobs);
+            }
+            else
+                threadpool = Executors.newFixedThreadPool(processingElements);
             
             //We're good to start, send the startup message to the master
             ArrayList<Object> message = new ArrayList<>(2);
@@ -190,55 +276,218 @@ public class ClusterStub {
         }
     }
 
-    private void finished(Job job){
-        ArrayList<Object> outStats = new ArrayList<>(2);
-        outStats.add(ClusterCommunicationTypes.FINISHED_JOB);
-        outStats.add(job);
-        send(outStats);
-   }
+    /**
+     * Claim a queued job so that it may be run.
+     * @param jobID The ID of the job.
+     * @param r The StubJob that will run it.
+     * @return False if the job has been revoked or cancelled, and so must not
+     * be run.
+     */
+    private boolean claim(String jobID, StubJob r){
+        synchronized(queued){
+            if(queued.get(jobID)!=r)
+                return false;
+            queued.remove(jobID);
+            r.thread = Thread.currentThread();
+            running.put(jobID, r);
+            return true;
+        }
+    }
+
+    /**
+     * Record that a job has stopped running.
+     * @param r The StubJob that ran it.
+     * @return True if the job was cancelled while it was running.
+     */
+    private boolean release(StubJob r){
+        synchronized(queued){
+            running.remove(r.job.getID());
+            r.thread = null;
+            //Clear any interrupt meant for the job
+            Thread.interrupted();
+            return r.cancelled;
+        }
+    }
+
+    /**
+     * Drop a job if it has not been started, or otherwise interrupt the thread
+     * running it. The Runner is told once it will not be run, or has stopped.
+     * @param jobID The ID of the job.
+     */
+    private void cancel(String jobID){
+        synchronized(queued){
+            if(queued.remove(jobID)==null){
+                StubJob r = running.get(jobID);
+                if(r!=null&&!r.cancelled){
+                    r.cancelled = true;
+                    r.thread.interrupt();
+                }
+                return;
+            }
+        }
+        sendCancelled(jobID);
+    }
+
+    private void sendCancelled(String jobID){
+        ArrayList<Object> message = new ArrayList<>(2);
+        message.add(ClusterCommunicationTypes.JOB_CANCELLED);
+        message.add(jobID);
+        send(message);
+    }
+
+    /**
+     * Give back up to max of the most recently received jobs that have not yet
+     * been started, and tell the Runner which they were.
+     * @param max The most jobs to give back.
+     */
+    private void revoke(int max){
+        ArrayList<String> revoked = new ArrayList<>(max);
+        synchronized(queued){
+            List<String> ids = new ArrayList<>(queued.keySet());
+            for(int i=ids.size()-1;i>=0&&revoked.size()<max;i--){
+                queued.remove(ids.get(i));
+                revoked.add(ids.get(i));
+            }
+        }
+        ArrayList<Object> message = new ArrayList<>(2);
+        message.add(ClusterCommunicationTypes.JOBS_REVOKED);
+        message.add(revoked);
+        send(message);
+    }
     
+    /**
+     * A job received from the Runner, and the times needed to report back how
+     * long it spent on this machine.
+     */
+    private class StubJob implements Runnable {
+        final Job job;
+        final long received;
+        long runTime;
+        /**
+         * The thread running the job, and whether it has been cancelled, both
+         * guarded by the queued collection.
+         */
+        Thread thread;
+        boolean cancelled;
+        
+        StubJob(Job job, long received){
+            this.job = job;
+            this.received = received;
+        }
+        
+        @Override
+        public void run() {
+            if(!claim(job.getID(), this))
+                return;
+            long started = System.nanoTime();
+            Throwable failure = null;
+            try{
+                JobContext.run(job);
+            }
+            catch(Throwable t){
+                failure = t;
+            }
+            if(release(this)){
+                sendCancelled(job.getID());
+                return;
+            }
+            if(failure!=null){
+                ArrayList<Object> message = new ArrayList<>(3);
+                message.add(ClusterCommunicationTypes.JOB_FAILED);
+                message.add(job.getID());
+                message.add(failure.toString());
+                send(message);
+                return;
+            }
+            runTime = System.nanoTime()-started;
+            outMessages.add(this);
+        }
+    }
     
     /**
      * This is the only thread that can send messages back to the Runner. Other
-     * threads should add messages to the message queue then interrupt this thread.
+     * threads should add messages to the message queue. Whenever it wakes, all
+     * the finished jobs waiting are sent back together, so the more quickly
+     * jobs finish the larger each FINISHED_JOBS message becomes.
      */
     private class MessageSender implements Runnable{
-        boolean live = true;
         Thread thread;
         
         /**
-         * Keep running and sending back messages from the messageQueue until
-         * live is set to false.
+         * Keep running and sending back messages from the message queue until
+         * told to stop.
          */
         @Override
-        public synchronized void run(){
+        public void run(){
 			try{
-				while(live){
-	                if(outMessages.peek()!=null){
-	                    for(Object message : outMessages.poll()){
-	                        sendMessage(message);
-	                    }
-	                }
-	                try{
-	                    wait(5000);
-	                }
-		            catch(InterruptedException e){}
-	            }
+				List<Object> messages = new ArrayList<>();
+				ArrayList<StubJob> finished = new ArrayList<>();
+				while(true){
+					messages.add(outMessages.take());
+					outMessages.drainTo(messages);
+					for(Object message : messages){
+						if(message instanceof StubJob){
+							finished.add((StubJob)message);
+							continue;
+						}
+						sendFinished(finished);
+						if(message==STOP){
+							out.flush();
+							return;
+						}
+						for(Object part : (List<?>)message)
+							out.writeObject(part);
+					}
+					sendFinished(finished);
+					messages.clear();
+					//Forget everything sent so far, so it may be collected
+					out.reset();
+					out.flush();
+				}
 			}
 			catch(IOException e){
 				e.printStackTrace();
 			}
+			catch(InterruptedException e){
+			}
         }
         
         /**
-         * Send message.
-         * @param message Message to send.
-         * @return True.
+         * Send a FINISHED_JOBS message for the given jobs, if there are any, then
+         * clear them.
+         * @param finished The finished jobs.
          */
-        private boolean sendMessage(Object message)throws IOException{
-            out.writeObject(message);
-			out.flush();
-            return true;
+        private void sendFinished(ArrayList<StubJob> finished) throws IOException{
+            if(finished.isEmpty())
+                return;
+            long now = System.nanoTime();
+            ArrayList<Job> jobs = new ArrayList<>(finished.size());
+            long[] runTimes = new long[finished.size()];
+            long[] residence = new long[finished.size()];
+            for(int i=0;i<finished.size();i++){
+                StubJob sj = finished.get(i);
+                jobs.add(sj.job);
+                runTimes[i] = sj.runTime;
+                residence[i] = now-sj.received;
+            }
+            out.writeObject(ClusterCommunicationTypes.FINISHED_JOBS);
+            out.writeObject(jobs);
+            out.writeObject(runTimes);
+            out.writeObject(residence);
+            finished.clear();
+        }
+        
+        /**
+         * Send everything queued so far, then stop.
+         */
+        void finish(){
+            outMessages.add(STOP);
+            try{
+                thread.join();
+            }
+            catch(InterruptedException e){
+                thread.interrupt();
+            }
         }
     }
     
@@ -2,12 +2,19 @@ package org.lambdaunbound.taskdispatcher.cluster;
 
 import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
 import org.lambdaunbound.taskdispatcher.AbstractTaskRunner;
+import org.lambdaunbound.taskdispatcher.DispatchMetrics;
 import org.lambdaunbound.taskdispatcher.Job;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An implementation of the AbstractTaskRunner for use by the ClusterDispatcher.
@@ -36,6 +43,25 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
 	private ObjectInputStream in;
 	private ObjectOutputStream out;
 	private Class<?> clazz;
+	/**
+	 * The most jobs that will be sent to the Stub in a single NEW_JOBS message.
+	 */
+	private static final int MAX_BATCH = 1024;
+	/**
+	 * Jobs that have been added but not yet sent. Only used by the dispatcher.
+	 */
+	private final List<J> outgoing = new ArrayList<>();
+	/**
+	 * When each unfinished job was sent, as given by System.nanoTime().
+	 */
+	private final Map<String, Long> sentAt = new ConcurrentHashMap<>();
+	/**
+	 * Moving averages, in nanoseconds, of how long jobs take to run on the Stub,
+	 * and of how long they spend between here and the Stub.
+	 * Both are 0 until the first job has come back.
+	 */
+	private volatile long meanRunTime = 0;
+	private volatile long roundTrip = 0;
 
 	/**
 	 * Create a new ClusterTask runner to run jobs for the given TaskDispatcher.
@@ -52,15 +78,29 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
     public void setUP(Socket s) {
         try {
             socket = s;
-			in = new ObjectInputStream(s.getInputStream());
+            s.setTcpNoDelay(true);
+			in = new ObjectInputStream(new BufferedInputStream(s.getInputStream()));
 			//Read in one object to make sure the connections are up okay.
 			in.readObject();
-			out = new ObjectOutputStream(s.getOutputStream());
+			out = new ObjectOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			out.flush();
+			outgoing.clear();
+			sentAt.clear();
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * The hostname of the machine this runner is connected to, if it is.
+     * @return The name of this runner.
+     */
+    @Override
+    public String getName(){
+        String host = getHostName();
+        return host==null ? super.getName() : host;
+    }
+    
     /**
      * Returns the hostname of the machine that this runner is conencted to.
      * @return The hostname of the machine that this runner is conencted to.
@@ -83,6 +123,7 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
 		if(!isAlive())
 			return;
 		try{
+			flush();
 			out.writeObject(ClusterCommunicationTypes.FINISHED);
 			out.flush();
 		}
@@ -92,19 +133,129 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
     }
 
     /**
-     * Add a new task to this Runner. This task is then sent to the remote machine,
-     * regardless of how busy it is.
+     * Jobs are serialised and run on the remote machine, so this runner always
+     * runs copies of its jobs.
+     * @return True.
+     */
+    @Override
+    public boolean copiesJobs() {
+        return true;
+    }
+
+    /**
+     * Add a new task to this Runner. This task is sent to the remote machine,
+     * regardless of how busy it is, along with any others added before the
+     * runner is next flushed.
      * @param job The job to be added.
+     * @see #flush()
      */
     @Override
     public void addTask(J job) {
 		clazz=job.getClass();
         if(monitor!=null)monitor.assignedJob();
+		jobs.put(job.getID(), job);
+		outgoing.add(job);
+    }
+
+    /**
+     * Send all the jobs that have been added since the last flush, in NEW_JOBS
+     * messages of no more than {@link #batchSize()} jobs each.
+     */
+    @Override
+    protected void flush() {
+		if(outgoing.isEmpty())
+			return;
+		try{
+			int batch = batchSize();
+			for(int i=0;i<outgoing.size();i+=batch){
+				ArrayList<J> jobBatch = new ArrayList<>(outgoing.subList(i, Math.min(outgoing.size(), i+batch)));
+				long now = System.nanoTime();
+				for(J job : jobBatch)
+					sentAt.put(job.getID(), now);
+				out.writeObject(ClusterCommunicationTypes.NEW_JOBS);
+				out.writeObject(jobBatch);
+				//Forget the jobs sent, so they may be collected and sent afresh
+				out.reset();
+				out.flush();
+				recordTime(DispatchMetrics.SEND, (System.nanoTime()-now)/jobBatch.size(), jobBatch.size());
+			}
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		outgoing.clear();
+    }
+
+    /**
+     * The number of jobs to send in each NEW_JOBS message. This is roughly the
+     * number of jobs the Stub can run in the time it takes for a job to get to
+     * it and back, so short jobs are sent in large batches to save on messages,
+     * while long jobs are sent on their own so the Stub may start on each as
+     * soon as possible. Until the first jobs have come back all the jobs are
+     * sent together.
+     * @return The number of jobs to send in each NEW_JOBS message.
+     */
+    public int batchSize() {
+		if(meanRunTime<=0)
+			return MAX_BATCH;
+		return (int)Math.max(1, Math.min(MAX_BATCH, jobsPerTrip()));
+    }
+
+    /**
+     * The number of jobs to keep queued on the Stub beyond its processing
+     * elements. This is the number of jobs the Stub can run in the time it
+     * takes for a job to get to it and back, rounded up, so that each
+     * processing element has a job waiting whenever it finishes one, much as
+     * TCP keeps a window of data in flight. It follows the measured run and
+     * round trip times, so is 0 until the first jobs have come back.
+     * @return The number of extra jobs.
+     */
+    @Override
+    public int getBacklog() {
+		if(meanRunTime<=0)
+			return 0;
+		return (int)Math.min(MAX_BATCH, jobsPerTrip());
+    }
+
+    /**
+     * The number of jobs the Stub can run in a round trip, rounded up.
+     * @return The number of jobs.
+     */
+    private long jobsPerTrip() {
+		long run = Math.max(1, meanRunTime);
+		return (Math.max(1, maxJobs)*roundTrip+run-1)/run;
+    }
+
+    /**
+     * Ask the ClusterStub to give back jobs it has not yet started. The jobs
+     * are given back once it replies.
+     * @param max The most jobs to give back.
+     */
+    @Override
+    protected void revokeJobs(int max) {
 		try{
-			jobs.put(job.getID(), job);
-			out.writeObject(ClusterCommunicationTypes.NEW_JOB);
-			out.writeObject(job);
-	        out.flush();
+			flush();
+			out.writeObject(ClusterCommunicationTypes.REVOKE_JOBS);
+			out.writeObject(Integer.valueOf(max));
+			out.flush();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+    }
+
+    /**
+     * Ask the ClusterStub to stop a job. The job is reported as cancelled
+     * once it replies, unless it has already been sent back.
+     * @param jobID The ID of the job.
+     */
+    @Override
+    protected void cancelJob(String jobID) {
+		try{
+			flush();
+			out.writeObject(ClusterCommunicationTypes.CANCEL_JOB);
+			out.writeObject(jobID);
+			out.flush();
 		}
 		catch(IOException e){
 			e.printStackTrace();
@@ -113,8 +264,7 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
 
     /**
      * Read in a finished job and then report back to the dispatcher that it has
-     * been completed. This job is then removed from the jobs collection and
-     * added to the finished jobs collection.
+     * been completed.
      * @throws IOException 
      */
     @SuppressWarnings(value = {"unchecked"})
@@ -126,19 +276,69 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
 		else
 			throw new ClassCastException("Wrong class found");
         
-        String jobID = job.getID();
-        jobs.remove(jobID);
-        finishedJobs.put(jobID, job);
-        dispatcher.jobCompleted(jobID);
+        sentAt.remove(job.getID());
+        jobCompleted(job.getID(), job);
+    }
+
+    /**
+     * Read in a FINISHED_JOBS message, update the measured run and round trip
+     * times, and then report each job back to the dispatcher as completed.
+     * @throws IOException 
+     */
+    @SuppressWarnings(value = {"unchecked"})
+    private void readFinishedJobs() throws IOException,ClassNotFoundException {
+		long started = System.nanoTime();
+		Object o = in.readObject();
+		long[] runTimes = (long[])in.readObject();
+		long[] residence = (long[])in.readObject();
+		long now = System.nanoTime();
+		if(!(o instanceof List<?>))
+			throw new ClassCastException("Expected a List of jobs");
+		List<?> finished = (List<?>)o;
+		if(!finished.isEmpty())
+			recordTime(DispatchMetrics.RECEIVE, (now-started)/finished.size(), finished.size());
+		for(int i=0;i<finished.size();i++){
+			Object f = finished.get(i);
+			if(!clazz.isInstance(f))
+				throw new ClassCastException("Wrong class found");
+			J job = (J)f;
+			Long sent = sentAt.remove(job.getID());
+			if(sent!=null){
+				long trip = Math.max(0, now-sent-residence[i]);
+				updateTimes(runTimes[i], trip);
+				recordTime(DispatchMetrics.NETWORK, trip, 1);
+			}
+			recordTime(DispatchMetrics.EXECUTION, runTimes[i], 1);
+			recordTime(DispatchMetrics.REMOTE_WAIT, residence[i]-runTimes[i], 1);
+			if(monitor!=null)monitor.finishJob();
+			jobCompleted(job.getID(), job);
+		}
+    }
+
+    /**
+     * Fold in a new measurement of how long a job took to run and how long it
+     * took to get to the Stub and back.
+     * @param runTime The nanoseconds spent running the job.
+     * @param trip The nanoseconds spent between here and the Stub.
+     */
+    private void updateTimes(long runTime, long trip) {
+		if(meanRunTime==0){
+			meanRunTime = Math.max(1, runTime);
+			roundTrip = trip;
+		}
+		else{
+			meanRunTime = Math.max(1, meanRunTime+(runTime-meanRunTime)/8);
+			roundTrip = roundTrip+(trip-roundTrip)/8;
+		}
     }
 
     /**
      * Listen for messages from the ClusterStub until the ClusterStub finishes.
-     * Other methods are used based upon the message type.
+     * Other methods are used based upon the message type. The runner should
+     * have been set up, and set alive, before this is run.
      */
     @Override
     public void run() {
-        setAlive(true);
         if(monitor!=null)monitor.setAlive(true);
         boolean error = false;
         try {
@@ -156,7 +356,7 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
                             case START_UP: {
 								line = in.readObject();
 								if(line instanceof Integer)
-									maxJobs = (Integer)line;
+									setMaxJobs((Integer)line);
                                 break;
                             }
                             case FINISHED_JOB: {
@@ -164,9 +364,31 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
                                 finishedJob();
                                 break;
                             }
+                            case FINISHED_JOBS: {
+                                readFinishedJobs();
+                                break;
+                            }
                             case KEEP_ALIVE: {
                                 break;
                             }
+                            case JOBS_REVOKED: {
+								List<String> revoked = new ArrayList<>();
+								line = in.readObject();
+								if(line instanceof List<?>){
+									for(Object o : (List<?>)line)
+										revoked.add((String)o);
+								}
+                                jobsRevoked(revoked);
+                                break;
+                            }
+                            case JOB_CANCELLED: {
+								line = in.readObject();
+								if(line instanceof String){
+									sentAt.remove((String)line);
+									jobCancelled((String)line);
+								}
+                                break;
+                            }
                             case FINISHED: {
                                 break outer;
                             }
@@ -179,12 +401,16 @@ public class ClusterTaskRunner<J extends Job> extends AbstractTaskRunner<J> {
 								line = in.readObject();
 								if(line instanceof String)
 									problem = (String)line;
+                                sentAt.remove(jid);
                                 jobFailed(jid,problem);
                                 break;
                             }
 						case END_TRANSMISSION:
 						case FINISHED_SEED:
 						case NEW_JOB:
+						case NEW_JOBS:
+						case REVOKE_JOBS:
+						case CANCEL_JOB:
 							throw new Error("This message should not have been sent to the dispatcher!\n" + mType);
                         }
                     }
@@ -0,0 +1,180 @@
+package org.lambdaunbound.taskdispatcher.cluster;
+
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.Job;
+import org.lambdaunbound.taskdispatcher.TaskProgress;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thread that listens for incoming connections and creates ClusterTaskRunners
+ * to fulfil match those machines. Shared by the dispatchers that run jobs on
+ * ClusterStubs.
+ * @param <J> The type of Job run by the dispatcher.
+ * @author gg32
+ */
+class ConnectionHandler<J extends Job> implements Runnable {
+    Thread thread;
+    volatile ServerSocket socket;
+    volatile boolean end = false;
+    volatile int port;
+    private final AbstractTaskDispatcher<?,J> dispatcher;
+    private final List<? super ClusterTaskRunner<J>> taskRunners;
+
+    /**
+     * Create a handler for a dispatcher.
+     * @param dispatcher The dispatcher that the machines will run jobs for.
+     * @param taskRunners The runners of the dispatcher, which new runners are
+     * added to. The progress of the dispatcher, if any, is told of the port
+     * and each new machine, whenever it was registered.
+     */
+    ConnectionHandler(AbstractTaskDispatcher<?,J> dispatcher, List<? super ClusterTaskRunner<J>> taskRunners){
+        this.dispatcher = dispatcher;
+        this.taskRunners = taskRunners;
+    }
+
+    /**
+     * Start listening on a new thread.
+     */
+    void start(){
+        thread = new Thread(this);
+        thread.start();
+    }
+
+    /**
+     * Get the port that is being listened on, waiting until it is listening
+     * if need be.
+     * @return The port number.
+     */
+    int getPort(){
+        while(socket==null){
+            try{
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e){
+            }
+        }
+        return port;
+    }
+
+    //TODO Some method that would work on Windows.
+    /**
+     * Tries to start a ClusterStub on each of the remote machines given.
+     * Assumes the user name to be used is the name of the current user, and that
+     * the classpath and directory to be used are the same as this VM.
+     * Creates a command that calls ssh on the local machine, that should then 
+     * start the ClusterStub on the remote machine. Unlikely to work on Windows.
+     * @param machineNames The machines to try and start ClusterStubs running on.
+     * @param blockingJobs The number of blocking jobs each should run at once,
+     * or 0 to run one for each processing element.
+     */
+    void startRemote(String[] machineNames, int blockingJobs){
+        int port = getPort();
+        String classPath = System.getProperty("java.class.path");
+        String hostname;
+        try{
+            hostname = InetAddress.getLocalHost().getHostName();
+        }
+        catch(UnknownHostException e){
+            e.printStackTrace();
+            return;
+        }
+        String socket = ""+port;
+        if(blockingJobs>0)
+            socket += " " + blockingJobs;
+		String launcher = "java -cp " + classPath + " " + org.lambdaunbound.taskdispatcher.cluster.ClusterStub.class.getCanonicalName() + " " + hostname + " " + socket;
+        String uname = System.getProperty("user.name");
+        String pwd = System.getProperty("user.dir");
+        
+        for(String mn: machineNames){
+            List<String> cmdlist = new ArrayList<>(5);
+            cmdlist.add("ssh");
+            cmdlist.add("-l");
+            cmdlist.add(uname);
+            cmdlist.add(mn);
+            cmdlist.add(" cd " + pwd + " ; " + launcher + " ");
+            try{
+                ProcessBuilder pb = new ProcessBuilder();
+                pb.command(cmdlist);
+                /*Process exec =*/ pb.start();
+            }
+            catch(IOException e){
+                System.out.println("Failed to launch on " + mn);
+            }
+        }
+    }
+    
+    /**
+     * While end is false this thread will accept incoming connections and
+     * either create a new ClusterTaskRunner and add it to the dispatchers
+     * list of TaskRunners, or match a TaskRunner that may have died with 
+     * the incoming connection, if they belong to the same hostname.
+     * If there is a View, then this Handler will also try to create a 
+     * representation of the connection on it.
+     * @see MachinePanel
+     */
+    @Override
+    public void run() {
+        try{
+            ServerSocket ss = new ServerSocket(0);
+            ss.setSoTimeout(2000);
+            port = ss.getLocalPort();
+            socket = ss;
+            System.out.println(port);
+			TaskProgress progress = dispatcher.getTaskProgress();
+			if(progress!=null)progress.setPort(port);
+            outer: while(!end){
+                try{
+                    Socket s = socket.accept();
+                    //s.getInetAddress();
+                    //See if it exists
+                    for(Object o : taskRunners){
+                            if(!(o instanceof ClusterTaskRunner))
+                                continue;
+                            ClusterTaskRunner<?> runner = (ClusterTaskRunner<?>)o;
+                            if(!runner.isAlive()&&s.getInetAddress().getHostName().equals(runner.getHostName())){
+                                runner.setUP(s);
+                                //Alive before the next connection is matched
+                                runner.setAlive(true);
+                                Thread t = new Thread(runner);
+                                t.start();
+                                continue outer;
+                            }
+
+                    }
+                    //Otherwise, make a new runner
+					ClusterTaskRunner<J> cm = new ClusterTaskRunner<>(dispatcher);
+                    cm.setUP(s);
+                    cm.setAlive(true);
+                    taskRunners.add(cm);
+					progress = dispatcher.getTaskProgress();
+					if(progress!=null){
+						cm.monitor = progress.addRemoteHost(cm.getHostName());
+					}
+                    new Thread(cm).start();
+                    System.out.println("New Machine Connected");
+                }
+                catch(SocketTimeoutException e){
+                    //This will be thrown by the connect method
+                    //We want this timeout so we can periodically check the
+                    //end flag so that we know to terminate this thread.
+                }
+                catch(Exception e)
+                {
+                    e.printStackTrace();
+                }
+            }
+            socket.close();
+        }
+        catch(Exception e){
+            
+        }
+    }
+    
+}
@@ -0,0 +1,104 @@
+package org.lambdaunbound.taskdispatcher.cluster;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.AbstractTaskRunner;
+import org.lambdaunbound.taskdispatcher.Job;
+import org.lambdaunbound.taskdispatcher.threaded.ForkJoinRunner;
+
+/**
+ * An implementation of AbstractTaskDispatcher that runs jobs both on this
+ * machine and on a cluster of others. Jobs run here are run in place by a
+ * ForkJoinRunner, without being serialised, while ClusterStubs connect and are
+ * given jobs just as by a ClusterDispatcher. Jobs are issued to whichever
+ * runner has the most free processing elements, and once there are none left
+ * to issue, idle runners take back the jobs queued on busy ones.
+ * @param <J> The type of Job that this dispatcher will be dispatching.
+ * @see ClusterDispatcher
+ * @author gg32
+ */
+public class HybridDispatcher <J extends Job> extends AbstractTaskDispatcher <AbstractTaskRunner<J>,J> {
+
+    private final int localThreads;
+    private ConnectionHandler<J> ch;
+
+    /**
+     * Create a dispatcher that uses every processing element of this machine
+     * as well as the cluster. The dispatching thread takes little time, so is
+     * not counted.
+     */
+    public HybridDispatcher(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a dispatcher that uses the given number of threads on this
+     * machine as well as the cluster.
+     * @param localThreads The number of jobs to run at once on this machine,
+     * or 0 to only use the cluster.
+     */
+    public HybridDispatcher(int localThreads){
+        if(localThreads<0)
+            throw new IllegalArgumentException("Local threads must not be negative: " + localThreads);
+        this.localThreads = localThreads;
+    }
+
+    /**
+     * Setup the local runner, and create the thread that will listen for
+     * incoming connections. After calling this it should then be safe for any
+     * other machines to try and connect with this one.
+     * @see AbstractTaskDispatcher#setUp() 
+     */
+    @Override
+    public void setUp(){
+        if(localThreads>0){
+            ForkJoinPool pool = new ForkJoinPool(localThreads,
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+            ForkJoinRunner<J> local = new ForkJoinRunner<>(this, pool);
+            local.setUp();
+            taskRunners.add(local);
+        }
+        ch = new ConnectionHandler<>(this, taskRunners);
+        ch.start();
+        publishMessage("Waiting for clients to connect...");
+    }
+    
+    /**
+     * Get the port that this dispatcher is listening on for ClusterStubs to
+     * connect to, waiting until it is listening if need be.
+     * @return The port number.
+     */
+    public int getPort(){
+        return ch.getPort();
+    }
+    
+    @Override
+    public void end(){
+        for(AbstractTaskRunner<J> runner : taskRunners){
+            runner.shutdown();
+        }
+        ch.end = true;
+    }
+    
+    /**
+     * Tries to start a ClusterStub on each of the remote machines given.
+     * @param machineNames The machines to try and start ClusterStubs running on.
+     * @see ClusterDispatcher#startRemote(String[])
+     */
+    public void startRemote(String[] machineNames){
+        ch.startRemote(machineNames, 0);
+    }
+    
+    /**
+     * Tries to start a ClusterStub on each of the remote machines given, each
+     * running many jobs that spend most of their time waiting at once.
+     * @param machineNames The machines to try and start ClusterStubs running on.
+     * @param blockingJobs The number of jobs each should run at once.
+     * @see ClusterStub#setBlockingJobs(int)
+     */
+    public void startRemote(String[] machineNames, int blockingJobs){
+        ch.startRemote(machineNames, blockingJobs);
+    }
+    
+}
@@ -13,13 +13,39 @@
  * <li /> Then create a TaskDispatcher:
  * <ul>
  * <li />The {@link org.lambdaunbound.taskdispatcher.cluster.ClusterDispatcher} is to be used on a cluster of machines.
+ * <li />The {@link org.lambdaunbound.taskdispatcher.cluster.HybridDispatcher} also runs jobs on the dispatching machine, without serialising them.
  * <li />The {@link org.lambdaunbound.taskdispatcher.threaded.ThreadedDispatcher} is an alternate dispatcher to be used on a single multicore machine.
+ * <li />The {@link org.lambdaunbound.taskdispatcher.threaded.ForkJoinDispatcher} runs jobs on a single machine in a work-stealing pool, for very many small jobs.
+ * <li />The {@link org.lambdaunbound.taskdispatcher.sequential.SequentialDispatcher} runs jobs one after another on the calling thread, for a machine with a single PE.
+ * <li />The {@link org.lambdaunbound.taskdispatcher.threaded.BlockingDispatcher} runs many jobs at once that mostly wait rather than compute,
+ * as may a {@link org.lambdaunbound.taskdispatcher.cluster.ClusterStub} given a number of blocking jobs.
  * </ul>
  * <li />Jobs are then added to the TaskDispatcher using {@link taskdispatcher.AbstractTaskDispatcher#addJob(Job)}.
  * <li />Calling {@link taskdispatcher.AbstractTaskDispatcher#start()} will cause the TaskDispatcher to serialise the jobs and issue them to the remote machines.
  * <li />The jobs will then be executed, and upon completion, serialised and sent back to dispatching machine.
  * <li />Only once all the jobs have been completed will the start method return.
  * </ul>
+ * <p>
+ * Jobs may instead be given to {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#start(java.util.Iterator)}, which only takes them as the runners have space for them.
+ * Jobs added with {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#submit(Job)} return a {@link org.lambdaunbound.taskdispatcher.JobFuture},
+ * and a {@link org.lambdaunbound.taskdispatcher.JobListener} may be registered to receive each job as soon as it is finished.
+ * Jobs implementing {@link org.lambdaunbound.taskdispatcher.DependentJob} are only issued once the jobs they depend upon have finished,
+ * and are given those jobs first, so that a pipeline of stages may run in a single generation.
+ * Jobs that fail are run again according to the {@link org.lambdaunbound.taskdispatcher.RetryPolicy} given to the dispatcher; those that fail every attempt are lost,
+ * and are listed by {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#getLostJobs()} once the run has finished.
+ * The RetryPolicy may also limit how long each attempt may take, and a job may be stopped early with
+ * {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#cancel(String)} or by cancelling its future.
+ * A running job may split its work into child jobs, forked and joined through its {@link org.lambdaunbound.taskdispatcher.JobContext},
+ * which are shared out between the threads of the machine running it.
+ * <p>
+ * Alternatively {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#startContinuous()} will dispatch jobs on a separate thread as they are added, from any thread,
+ * until {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#stopContinuous()} is called.
+ * {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#startPipelined()} does the same, but groups the jobs into {@link org.lambdaunbound.taskdispatcher.Generation}s,
+ * so that the jobs of the next generation may run while the last of the current one finish.
+ * <p>
+ * Given a {@link org.lambdaunbound.taskdispatcher.CheckpointLog}, the dispatcher logs each generation as it runs, and should it die, a new dispatcher may
+ * {@link org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher#resume()} the generation, only running the jobs that had not finished.
+ * <p>
  * If the task dispatcher is to be used for a second set of jobs, then call the {@link taskdispatcher.AbstractTaskDispatcher#newGeneration()} method to clear the list of jobs.
  * <p>
  * Once all the work has been completed call the {@link taskdispatcher.AbstractTaskDispatcher#end()} to close any open sockets and stop any threads.
@@ -0,0 +1,45 @@
+package org.lambdaunbound.taskdispatcher.sequential;
+
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.AbstractTaskRunner;
+import org.lambdaunbound.taskdispatcher.Job;
+
+/**
+ * An implementation of AbstractTaskDispatcher that runs every job itself, one
+ * after another, on the thread that calls start. It has no runners, so there
+ * are no threads to hand jobs to or wake. It is to be used on a machine with a
+ * single processing element, or for jobs so small that handing them out would
+ * take longer than running them.
+ *
+ * Jobs are still ordered, retried, checkpointed and passed to their futures
+ * and listeners as by any other dispatcher, but are not timed out, and can not
+ * be cancelled once started.
+ *
+ * @param <J> The type of job to be run by this dispatcher.
+ * @author gg32
+ */
+public class SequentialDispatcher<J extends Job> extends AbstractTaskDispatcher<AbstractTaskRunner<J>,J> {
+
+    /**
+     * Nothing to set up, as there are no runners.
+     */
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void end() {
+    }
+
+    /**
+     * Every job is run inline.
+     * @param job The job.
+     * @param cost The estimated cost of the job.
+     * @return True.
+     */
+    @Override
+    protected boolean runsInline(J job, long cost) {
+        return true;
+    }
+
+}
@@ -0,0 +1,49 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.BlockingThreads;
+import org.lambdaunbound.taskdispatcher.Job;
+
+/**
+ * An implementation of AbstractTaskDispatcher for jobs that spend most of
+ * their time waiting, such as on files or other processes, rather than
+ * computing. Many more jobs are run at once than there are processing
+ * elements, on virtual threads where the VM has them.
+ *
+ * @param <J> The type of job to be run by this dispatcher.
+ * @author gg32
+ * @see BlockingThreads
+ */
+public class BlockingDispatcher<J extends Job> extends AbstractTaskDispatcher<ExecutorRunner<J>,J> {
+
+    private final int jobs;
+
+    /**
+     * Create a dispatcher that runs up to the given number of jobs at once.
+     * @param jobs The most jobs to run at once.
+     */
+    public BlockingDispatcher(int jobs){
+        if(jobs<1)
+            throw new IllegalArgumentException("Must run at least 1 job at once: " + jobs);
+        this.jobs = jobs;
+    }
+
+    /**
+     * Setup a single ExecutorRunner with a slot for each job that may be run
+     * at once.
+     */
+    @Override
+    public void setUp() {
+        ExecutorRunner<J> er = new ExecutorRunner<>(this, BlockingThreads.newPool(jobs), jobs);
+        er.setUp();
+        taskRunners.add(er);
+    }
+
+    @Override
+    public void end() {
+        for(ExecutorRunner<J> er : taskRunners){
+            er.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.AbstractTaskRunner;
+import org.lambdaunbound.taskdispatcher.DispatchMetrics;
+import org.lambdaunbound.taskdispatcher.Job;
+import org.lambdaunbound.taskdispatcher.JobContext;
+
+/**
+ * An implementation of AbstractTaskRunner that hands each job added to an
+ * ExecutorService at once, without locking, to be run by whichever of its
+ * threads is free. The runner has no thread of its own.
+ * @param <J> The type of Job to be run.
+ * @author gg32
+ * @see ForkJoinRunner
+ */
+public class ExecutorRunner<J extends Job> extends AbstractTaskRunner<J> {
+
+    private final ExecutorService pool;
+    private final int threads;
+    /**
+     * The jobs added and not yet finished, so that they may be cancelled.
+     */
+    private final Map<String, RunJob> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * Create an instance of an ExecutorRunner to perform work for the given
+     * dispatcher in the given pool.
+     * @param atd The dispatcher using this Runner.
+     * @param pool The pool to run jobs in.
+     * @param threads The number of jobs the pool runs at once.
+     */
+    public ExecutorRunner(AbstractTaskDispatcher<?,J> atd, ExecutorService pool, int threads){
+        super(atd);
+        this.pool = pool;
+        this.threads = threads;
+        jobs = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Set the max jobs of this Runner to the number of jobs its pool runs at
+     * once, and mark it as alive.
+     */
+    public void setUp(){
+        maxJobs = threads;
+        setAlive(true);
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdownNow();
+        setAlive(false);
+    }
+
+    /**
+     * Add a job to be run by the pool.
+     * @param job The job to be added.
+     * @see AbstractTaskRunner#addTask(taskdispatcher.Job)
+     */
+    @Override
+    public void addTask(J job) {
+        assert(job != null);
+        assert(job.getID()!=null);
+        RunJob task = new RunJob(job);
+        jobs.put(job.getID(), job);
+        tasks.put(job.getID(), task);
+        pool.execute(task);
+    }
+
+    /**
+     * Does nothing, as the jobs are run by the threads of the pool.
+     */
+    @Override
+    public void run() {
+    }
+
+    /**
+     * Drop a job if it has not been started, or otherwise interrupt it. A job
+     * that is interrupted is reported as cancelled once it has stopped, even
+     * if it ignored the interrupt and ran to the end.
+     * @param jobID The ID of the job.
+     */
+    @Override
+    protected void cancelJob(String jobID) {
+        RunJob task = tasks.get(jobID);
+        if(task==null)
+            return;
+        synchronized(task){
+            if(task.cancelled)
+                return;
+            task.cancelled = true;
+            if(task.thread!=null){
+                task.thread.interrupt();
+                return;
+            }
+            if(task.started)
+                return;
+        }
+        tasks.remove(jobID);
+        jobCancelled(jobID);
+    }
+
+    /**
+     * Give back jobs that have not been started, so that they may be run by
+     * another runner, such as when the pool shares a HybridDispatcher with
+     * remote machines.
+     * @param max The most jobs to give back.
+     */
+    @Override
+    protected void revokeJobs(int max) {
+        List<String> revoked = new ArrayList<>(max);
+        for(RunJob task : tasks.values()){
+            if(revoked.size()>=max)
+                break;
+            synchronized(task){
+                if(task.started||task.cancelled)
+                    continue;
+                //Skipped by the pool once it is taken up
+                task.cancelled = true;
+            }
+            String jobID = task.job.getID();
+            tasks.remove(jobID);
+            revoked.add(jobID);
+        }
+        jobsRevoked(revoked);
+    }
+
+    /**
+     * A job as run by a thread of the pool.
+     */
+    private class RunJob implements Runnable {
+
+        private final J job;
+        /**
+         * Whether the job has been taken up by a thread, the thread running it
+         * and whether it has been cancelled, all guarded by this.
+         */
+        private boolean started = false;
+        private Thread thread;
+        private boolean cancelled = false;
+
+        RunJob(J job){
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            synchronized(this){
+                started = true;
+                //A job dropped before it started has already been reported
+                if(cancelled)
+                    return;
+                thread = Thread.currentThread();
+            }
+            String jobID = job.getID();
+            long start = System.nanoTime();
+            Throwable failure = null;
+            try{
+                JobContext.run(job);
+            }
+            catch(Throwable t){
+                failure = t;
+            }
+            boolean stopped;
+            synchronized(this){
+                stopped = cancelled;
+                thread = null;
+                //Clear any interrupt meant for the job
+                Thread.interrupted();
+            }
+            tasks.remove(jobID);
+            if(stopped)
+                jobCancelled(jobID);
+            else if(failure!=null)
+                jobFailed(jobID, failure.toString());
+            else{
+                recordTime(DispatchMetrics.EXECUTION, System.nanoTime()-start, 1);
+                jobCompleted(jobID, job);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.Job;
+
+/**
+ * An implementation of AbstractTaskDispatcher to run on a machine with multiple
+ * processing elements, using a work-stealing ForkJoinPool rather than a thread
+ * per runner. All the jobs go to a single ForkJoinRunner, which hands them
+ * straight to the pool, so the dispatcher need not pick a thread for each job
+ * and idle threads take up work from busy ones. This suits very many small
+ * jobs, whose cost would otherwise be dwarfed by handing them out.
+ *
+ * @param <J> The type of job to be run by this dispatcher.
+ * @author gg32
+ * @see ThreadedDispatcher
+ */
+public class ForkJoinDispatcher<J extends Job> extends AbstractTaskDispatcher<ForkJoinRunner<J>,J> {
+
+    private final int parallelism;
+
+    /**
+     * Create a dispatcher with a thread for each processing element on this
+     * machine.
+     */
+    public ForkJoinDispatcher(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a dispatcher with the given number of threads.
+     * @param parallelism The number of jobs to run at once.
+     */
+    public ForkJoinDispatcher(int parallelism){
+        if(parallelism<1)
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Setup a single ForkJoinRunner backed by a new pool.
+     */
+    @Override
+    public void setUp() {
+        //Async mode runs submitted jobs in the order they are given
+        ForkJoinPool pool = new ForkJoinPool(parallelism,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        ForkJoinRunner<J> fjr = new ForkJoinRunner<>(this, pool);
+        fjr.setUp();
+        taskRunners.add(fjr);
+    }
+
+    @Override
+    public void end() {
+        for(ForkJoinRunner<J> fjr : taskRunners){
+            fjr.shutdown();
+        }
+    }
+
+}
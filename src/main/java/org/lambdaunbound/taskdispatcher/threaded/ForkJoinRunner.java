@@ -0,0 +1,46 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.Job;
+
+/**
+ * An implementation of ExecutorRunner to be used by the ForkJoinDispatcher.
+ * Each job added is handed to a ForkJoinPool at once, without locking, and
+ * the threads of the pool share them out by stealing from each other. The
+ * runner has no thread of its own.
+ * @param <J> The type of Job to be run.
+ * @author gg32
+ */
+public class ForkJoinRunner<J extends Job> extends ExecutorRunner<J> {
+
+    /**
+     * The number of jobs to keep queued for each thread of the pool, so that
+     * the threads are never left waiting on the dispatcher.
+     */
+    private static final int BACKLOG_PER_THREAD = 16;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Create an instance of a ForkJoinRunner to perform work for the given
+     * dispatcher in the given pool.
+     * @param atd The dispatcher using this Runner.
+     * @param pool The pool to run jobs in.
+     */
+    public ForkJoinRunner(AbstractTaskDispatcher<?,J> atd, ForkJoinPool pool){
+        super(atd, pool, pool.getParallelism());
+        this.pool = pool;
+    }
+
+    /**
+     * Keep a few jobs queued for every thread of the pool.
+     * @return The number of extra jobs.
+     */
+    @Override
+    public int getBacklog() {
+        return pool.getParallelism()*BACKLOG_PER_THREAD;
+    }
+
+}
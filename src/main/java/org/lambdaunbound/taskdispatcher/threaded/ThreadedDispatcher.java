@@ -5,14 +5,14 @@ import org.lambdaunbound.taskdispatcher.Job;
 
 /**
  * An implementation of AbstractTaskDispatcher to run on a machine with multiple
- * processing elements. For now  it should also be used by any machine with only
- * a single PE, as there is no sequential dispatcher.
+ * processing elements. A machine with only a single PE should use the
+ * SequentialDispatcher instead.
  * 
  * @param <J> The type of job to be run by this dispatcher.
  * @author gg32
+ * @see org.lambdaunbound.taskdispatcher.sequential.SequentialDispatcher
  */
 public class ThreadedDispatcher<J extends Job> extends AbstractTaskDispatcher<ThreadedRunner<J>,J> {
-    //TODO Write a sequential dispatcher.
 
     /**
      * Setup ThreadedRunners, one for each processing element on this machine.
@@ -1,11 +1,14 @@
 package org.lambdaunbound.taskdispatcher.threaded;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
 
 import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
 import org.lambdaunbound.taskdispatcher.AbstractTaskRunner;
+import org.lambdaunbound.taskdispatcher.DispatchMetrics;
 import org.lambdaunbound.taskdispatcher.Job;
+import org.lambdaunbound.taskdispatcher.JobContext;
 
 /**
  * An implementation of AbstractTaskRunner to be used by the ThreadedDispatcher.
@@ -14,8 +17,17 @@ import org.lambdaunbound.taskdispatcher.Job;
  */
 public class ThreadedRunner<J extends Job> extends AbstractTaskRunner<J> {
     
-    private boolean live = true;
+    private volatile boolean live = true;
     Thread thread;
+    /**
+     * The ID of the job being run, guarded by the jobs collection.
+     */
+    private String current;
+    /**
+     * Whether the job being run has been cancelled, guarded by the jobs
+     * collection.
+     */
+    private boolean cancelled;
     
 	/**
 	 * Create an instance of a ThreadedRunner to perform work for the given dispatcher.
@@ -34,15 +46,16 @@ public class ThreadedRunner<J extends Job> extends AbstractTaskRunner<J> {
     }
 
     @Override
-    public void shutdown() {
+    public synchronized void shutdown() {
         live = false;
-        thread.interrupt();
+        notify();
     }
 
     /**
-     * Add and start the current job. The ThreadRunner will be interrupted to
-     * start this job. It should not currently be running another job at the time.
-     * If it is then unexpected behaviour may occur.
+     * Add a job to be run. The ThreadRunner will be woken to start this job if
+     * it is idle, otherwise the job is run once those added before it have
+     * finished. The runner is not interrupted, so as not to disturb the job
+     * it is running, unless that job is cancelled.
      * @param job The job to be added.
      * @see AbstractTaskRunner#addTask(taskdispatcher.Job) 
      */
@@ -52,7 +65,9 @@ public class ThreadedRunner<J extends Job> extends AbstractTaskRunner<J> {
     	assert(job != null);
     	assert(job.getID()!=null);
         jobs.put(job.getID(),job);
-        thread.interrupt();
+        synchronized(this){
+            notify();
+        }
     }
     
     /**
@@ -63,23 +78,51 @@ public class ThreadedRunner<J extends Job> extends AbstractTaskRunner<J> {
     public void run() {
         setAlive(true);
         while(live){
-        	Iterator<String> ks = jobs.keySet().iterator(); 
-            if(ks.hasNext()){
-            	String jobID=ks.next();
-
-                assert(jobID!=null);
-                J job = jobs.get(jobID);
+            String jobID = null;
+            J job = null;
+            synchronized(jobs){
+                Iterator<String> ks = jobs.keySet().iterator();
+                if(ks.hasNext()){
+                    jobID=ks.next();
+                    job = jobs.get(jobID);
+                }
+                current = jobID;
+            }
+            if(jobID!=null){
                 assert(job!=null);
 
-                job.run();
-                finishedJob(jobID,job);
+                long started = System.nanoTime();
+                Throwable failure = null;
+                try{
+                    JobContext.run(job);
+                }
+                catch(Throwable t){
+                    failure = t;
+                }
+                boolean stopped;
+                synchronized(jobs){
+                    stopped = cancelled;
+                    cancelled = false;
+                    current = null;
+                    jobs.remove(jobID);
+                    //Clear any interrupt meant for the job
+                    Thread.interrupted();
+                }
+                if(stopped)
+                    jobCancelled(jobID);
+                else if(failure!=null)
+                    jobFailed(jobID, failure.toString());
+                else{
+                    recordTime(DispatchMetrics.EXECUTION, System.nanoTime()-started, 1);
+                    jobCompleted(jobID,job);
+                }
 
             }
             else{
             	synchronized(this){
-            		if(live&&!thread.isInterrupted()){
+            		if(live&&jobs.isEmpty()){
             			try{
-            				wait(5000);
+            				wait();
             			}
             			catch(InterruptedException e){
             			}
@@ -91,14 +134,45 @@ public class ThreadedRunner<J extends Job> extends AbstractTaskRunner<J> {
     }
     
     /**
-     * Read in a finished job and report this back to the dispatcher.
-	 * @param jobID The ID of the finished Job,
-	 * @param job The finished Job.
+     * Drop a job if it has not been started, or otherwise interrupt it. A job
+     * that is interrupted is reported as cancelled once it has stopped, even
+     * if it ignored the interrupt and ran to the end.
+     * @param jobID The ID of the job.
      */
-    private void finishedJob(String jobID,J job) {
-        jobs.remove(jobID);
-        finishedJobs.put(jobID, job);
-        dispatcher.jobCompleted(jobID);
+    @Override
+    protected void cancelJob(String jobID) {
+        synchronized(jobs){
+            if(jobID.equals(current)){
+                if(!cancelled){
+                    cancelled = true;
+                    thread.interrupt();
+                }
+                return;
+            }
+            if(jobs.remove(jobID)==null)
+                return;
+        }
+        jobCancelled(jobID);
+    }
+    
+    /**
+     * Give back the most recently added jobs that have not been started.
+     * @param max The most jobs to give back.
+     */
+    @Override
+    protected void revokeJobs(int max) {
+        List<String> revoked = new ArrayList<>(max);
+        synchronized(jobs){
+            List<String> queued = new ArrayList<>(jobs.keySet());
+            for(int i=queued.size()-1;i>=0&&revoked.size()<max;i--){
+                String jobID = queued.get(i);
+                if(!jobID.equals(current)){
+                    jobs.remove(jobID);
+                    revoked.add(jobID);
+                }
+            }
+        }
+        jobsRevoked(revoked);
     }
     
 }
@@ -0,0 +1,129 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of running each task on a thread of its own, a few at a time.
+ * @author gg32
+ */
+public class BoundedExecutorTest {
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger most = new AtomicInteger();
+    private final AtomicInteger made = new AtomicInteger();
+    private BoundedExecutor executor;
+
+    @Before
+    public void setUp(){
+        executor = new BoundedExecutor(new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable r){
+                made.incrementAndGet();
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        }, 4);
+    }
+
+    @After
+    public void tearDown(){
+        executor.shutdownNow();
+    }
+
+    @Test(timeout=10000)
+    public void noMoreThanThePermitsRunAtOnce() throws InterruptedException, ExecutionException{
+        List<Future<Integer>> futures = new ArrayList<>();
+        for(int i=0;i<40;i++)
+            futures.add(executor.submit(counted(i, 10)));
+        for(int i=0;i<40;i++)
+            assertEquals(i, (int)futures.get(i).get());
+        assertTrue("Ran " + most.get(), most.get()<=4);
+        assertEquals(4, most.get());
+        assertEquals(40, made.get());
+    }
+
+    @Test(timeout=10000)
+    public void shuttingDownFinishesTheTasksGiven() throws InterruptedException{
+        for(int i=0;i<10;i++)
+            executor.submit(counted(i, 10));
+        executor.shutdown();
+        assertTrue(executor.isShutdown());
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+        assertEquals(0, running.get());
+        try{
+            executor.execute(new Runnable(){
+                @Override
+                public void run(){
+                }
+            });
+            fail();
+        }
+        catch(RejectedExecutionException e){
+        }
+    }
+
+    @Test(timeout=10000)
+    public void shuttingDownNowGivesBackTheTasksNotStarted() throws InterruptedException{
+        final CountDownLatch started = new CountDownLatch(4);
+        for(int i=0;i<10;i++){
+            executor.execute(new Runnable(){
+                @Override
+                public void run(){
+                    started.countDown();
+                    try{
+                        Thread.sleep(10000);
+                    }
+                    catch(InterruptedException e){
+                        //Stopped
+                    }
+                }
+            });
+        }
+        started.await();
+        List<Runnable> unstarted = executor.shutdownNow();
+        assertEquals(6, unstarted.size());
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout=10000)
+    public void thereIsNoTerminationUntilShutDown() throws InterruptedException{
+        assertFalse(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+        assertFalse(executor.isTerminated());
+    }
+
+    private Callable<Integer> counted(final int value, final long sleep){
+        return new Callable<Integer>(){
+            @Override
+            public Integer call() throws InterruptedException{
+                int now = running.incrementAndGet();
+                int was;
+                while((was = most.get())<now&&!most.compareAndSet(was, now));
+                try{
+                    Thread.sleep(sleep);
+                }
+                finally{
+                    running.decrementAndGet();
+                }
+                return value;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of cancelling jobs, before and while they run.
+ * @author gg32
+ */
+public class CancelTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void aCancelledJobIsNotRun(){
+        JobFuture<TestJob> future = dispatcher.submit(new TestJob("cancel-queued", 1));
+        dispatcher.addJob(new TestJob("cancel-kept", 1));
+        assertTrue(future.cancel(false));
+        assertFalse(dispatcher.start());
+        assertTrue(future.isCancelled());
+        assertEquals(0, TestJob.runs("cancel-queued"));
+        assertFalse(dispatcher.getFinishedJobs().containsKey("cancel-queued"));
+        assertTrue(dispatcher.getFinishedJobs().containsKey("cancel-kept"));
+    }
+
+    @Test(timeout=10000)
+    public void aRunningJobIsInterrupted() throws InterruptedException{
+        final JobFuture<TestJob> future = dispatcher.submit(new TestJob("cancel-running", 1, 5000));
+        dispatcher.addJob(new TestJob("cancel-beside", 1, 200));
+        Thread canceller = new Thread(){
+            @Override
+            public void run(){
+                try{
+                    Thread.sleep(100);
+                }
+                catch(InterruptedException e){
+                    return;
+                }
+                future.cancel(true);
+            }
+        };
+        canceller.start();
+        long started = System.nanoTime();
+        assertFalse(dispatcher.start());
+        long millis = (System.nanoTime()-started)/1000000;
+        canceller.join();
+        assertTrue("Took " + millis + "ms", millis<5000);
+        assertTrue(future.isCancelled());
+        assertTrue(dispatcher.getLostJobs().isEmpty());
+        assertTrue(dispatcher.getFinishedJobs().containsKey("cancel-beside"));
+        try{
+            future.get();
+            fail();
+        }
+        catch(CancellationException e){
+        }
+        catch(ExecutionException e){
+            fail(e.toString());
+        }
+    }
+
+    @Test(timeout=10000)
+    public void jobsDependingOnACancelledJobAreLost(){
+        dispatcher.addJob(new TestJob("cancel-parent", 1, 500));
+        dispatcher.addJob(new Child("cancel-child", "cancel-parent"));
+        dispatcher.cancel("cancel-parent");
+        assertTrue(dispatcher.start());
+        assertTrue(dispatcher.getLostJobs().containsKey("cancel-child"));
+    }
+
+    @Test(timeout=10000)
+    public void cancellingAFinishedJobDoesNothing(){
+        JobFuture<TestJob> future = dispatcher.submit(new TestJob("cancel-done", 1));
+        assertFalse(dispatcher.start());
+        assertFalse(future.cancel(true));
+        dispatcher.cancel("cancel-done");
+        assertTrue(dispatcher.getFinishedJobs().containsKey("cancel-done"));
+    }
+
+    /**
+     * A job that depends upon one other.
+     */
+    private static class Child extends TestJob implements DependentJob {
+        private static final long serialVersionUID = 1L;
+        private final String parent;
+
+        Child(String id, String parent){
+            super(id, 1);
+            this.parent = parent;
+        }
+
+        @Override
+        public Collection<String> getDependencies(){
+            return Collections.singleton(parent);
+        }
+
+        @Override
+        public void setDependencyResults(Map<String, ? extends Job> results){
+        }
+    }
+
+}
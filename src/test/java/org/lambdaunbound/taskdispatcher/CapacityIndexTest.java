@@ -0,0 +1,119 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the index of runners by their free slots.
+ * @author gg32
+ */
+public class CapacityIndexTest {
+
+    private CapacityIndex<Runner> index;
+    private Runner a;
+    private Runner b;
+    private Runner c;
+
+    @Before
+    public void setUp(){
+        index = new CapacityIndex<>();
+        a = new Runner(false);
+        b = new Runner(false);
+        c = new Runner(true);
+    }
+
+    @Test
+    public void theRunnerWithTheMostFreeSlotsIsChosen(){
+        index.set(a, 2);
+        index.set(b, 5);
+        index.set(c, 3);
+        assertSame(b, index.mostFree(null, false));
+        assertEquals(10, index.totalFree());
+        index.set(b, 1);
+        assertSame(c, index.mostFree(null, false));
+        assertEquals(6, index.totalFree());
+    }
+
+    @Test
+    public void tiesGoToTheRunnerThatHasWaitedLongest(){
+        index.set(a, 2);
+        index.set(b, 2);
+        assertSame(a, index.mostFree(null, false));
+        index.set(a, 1);
+        index.set(a, 2);
+        assertSame(b, index.mostFree(null, false));
+    }
+
+    @Test
+    public void fullRunnersAreRemoved(){
+        index.set(a, 1);
+        index.set(a, 0);
+        assertNull(index.mostFree(null, false));
+        assertEquals(0, index.totalFree());
+        index.set(b, -3);
+        assertNull(index.mostFree(null, false));
+        assertEquals(0, index.totalFree());
+    }
+
+    @Test
+    public void excludedRunnersAreSkipped(){
+        index.set(a, 4);
+        index.set(b, 2);
+        index.set(c, 1);
+        assertSame(b, index.mostFree(Arrays.asList(a), false));
+        assertNull(index.mostFree(Arrays.asList(a, b, c), false));
+    }
+
+    @Test
+    public void copiesOnlyGoToRunnersThatCopyJobs(){
+        index.set(a, 4);
+        index.set(c, 1);
+        assertSame(c, index.mostFree(null, true));
+        assertNull(index.mostFree(Arrays.asList(c), true));
+    }
+
+    @Test
+    public void clearingEmptiesTheIndex(){
+        index.set(a, 4);
+        index.set(b, 2);
+        index.clear();
+        assertNull(index.mostFree(null, false));
+        assertEquals(0, index.totalFree());
+        assertEquals(0, a.slot);
+        index.set(a, 1);
+        assertSame(a, index.mostFree(null, false));
+        assertEquals(1, index.totalFree());
+    }
+
+    private static class Runner extends AbstractTaskRunner<TestJob> {
+
+        private final boolean copies;
+
+        Runner(boolean copies){
+            super(null);
+            this.copies = copies;
+        }
+
+        @Override
+        public boolean copiesJobs(){
+            return copies;
+        }
+
+        @Override
+        public void run(){
+        }
+
+        @Override
+        public void shutdown(){
+        }
+
+        @Override
+        public void addTask(TestJob job){
+        }
+    }
+
+}
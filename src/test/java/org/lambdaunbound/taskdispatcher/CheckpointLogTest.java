@@ -0,0 +1,132 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of checkpointing a generation and resuming it on a new dispatcher.
+ * @author gg32
+ */
+public class CheckpointLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout=10000)
+    public void aResumedGenerationOnlyRunsTheUnfinishedJobs() throws IOException{
+        File file = new File(folder.getRoot(), "checkpoint");
+        crashPartWayThrough(file, "resume");
+
+        LocalDispatcher<TestJob> second = new LocalDispatcher<>(1);
+        second.setUp();
+        try(CheckpointLog<TestJob> log = new CheckpointLog<>(file)){
+            assertTrue(log.hasCheckpoint());
+            second.setCheckpointLog(log);
+            assertFalse(second.resume());
+            assertEquals(7, second.getFinishedJobs().size());
+            for(int i=0;i<5;i++){
+                assertEquals(1, TestJob.runs("resume" + i));
+                assertEquals(i*2, second.getFinishedJobs().get("resume" + i).getResult());
+            }
+            assertEquals(2, second.getFinishedJobs().get("resume-slow").getResult());
+            assertEquals(2, second.getFinishedJobs().get("resume-last").getResult());
+            assertEquals(7, second.getProgress().getCompleted());
+        }
+        finally{
+            second.end();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void jobsAddedAgainAreNotRunTwice() throws IOException{
+        File file = new File(folder.getRoot(), "checkpoint");
+        crashPartWayThrough(file, "again");
+
+        LocalDispatcher<TestJob> second = new LocalDispatcher<>(1);
+        second.setUp();
+        try(CheckpointLog<TestJob> log = new CheckpointLog<>(file)){
+            second.setCheckpointLog(log);
+            //The whole generation, added again as it would be after a restart
+            for(int i=0;i<5;i++)
+                second.addJob(new TestJob("again" + i, i));
+            second.addJob(new TestJob("again-slow", 1, 200));
+            second.addJob(new TestJob("again-last", 1));
+            assertFalse(second.resume());
+            assertEquals(7, second.getFinishedJobs().size());
+            assertEquals(1, TestJob.runs("again0"));
+            assertEquals(1, TestJob.runs("again-last"));
+        }
+        finally{
+            second.end();
+        }
+    }
+
+    @Test
+    public void aRecordCutShortIsDropped() throws IOException{
+        File file = new File(folder.getRoot(), "checkpoint");
+        crashPartWayThrough(file, "torn");
+        long length = file.length();
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+            raf.setLength(length-3);
+        }
+        try(CheckpointLog<TestJob> log = new CheckpointLog<>(file)){
+            assertTrue(log.hasCheckpoint());
+        }
+        assertTrue(file.length()<length-3);
+    }
+
+    @Test(timeout=10000)
+    public void startingAGenerationEmptiesTheLog() throws IOException{
+        File file = new File(folder.getRoot(), "checkpoint");
+        crashPartWayThrough(file, "fresh");
+        LocalDispatcher<TestJob> second = new LocalDispatcher<>(1);
+        second.setUp();
+        try(CheckpointLog<TestJob> log = new CheckpointLog<>(file)){
+            second.setCheckpointLog(log);
+            second.addJob(new TestJob("fresh-other", 1));
+            assertFalse(second.start());
+            assertEquals(1, second.getFinishedJobs().size());
+        }
+        finally{
+            second.end();
+        }
+    }
+
+    /**
+     * Run a generation that is failed while its sixth job runs, leaving five
+     * jobs finished and two unfinished in the log.
+     */
+    private void crashPartWayThrough(File file, String prefix) throws IOException{
+        final LocalDispatcher<TestJob> first = new LocalDispatcher<>(1);
+        first.setUp();
+        try(CheckpointLog<TestJob> log = new CheckpointLog<>(file)){
+            first.setCheckpointLog(log);
+            for(int i=0;i<5;i++)
+                first.addJob(new TestJob(prefix + i, i));
+            first.addJob(new TestJob(prefix + "-slow", 1, 200));
+            first.addJob(new TestJob(prefix + "-last", 1));
+            first.addJobListener(new JobListener<TestJob>() {
+                private int finished = 0;
+
+                @Override
+                public void jobFinished(TestJob job) {
+                    if(++finished==5)
+                        first.jobFailed(job.getID(), "crashed");
+                }
+            });
+            assertTrue(first.start());
+        }
+        finally{
+            first.end();
+        }
+    }
+
+}
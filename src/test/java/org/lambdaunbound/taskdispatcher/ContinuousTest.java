@@ -0,0 +1,98 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of dispatching continuously, with jobs added while running.
+ * @author gg32
+ */
+public class ContinuousTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.stopContinuous();
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void jobsAddedWhileRunningAreIssued() throws Exception{
+        dispatcher.startContinuous();
+        for(int i=0;i<10;i++){
+            JobFuture<TestJob> future = dispatcher.submit(new TestJob("j" + i, i));
+            assertEquals(i*2, future.get(5, TimeUnit.SECONDS).getResult());
+        }
+        assertFalse(dispatcher.stopContinuous());
+    }
+
+    @Test(timeout=10000)
+    public void stoppingWaitsForEveryJob(){
+        final AtomicInteger finished = new AtomicInteger();
+        dispatcher.addJobListener(new JobListener<TestJob>() {
+            @Override
+            public void jobFinished(TestJob job) {
+                finished.incrementAndGet();
+            }
+        });
+        dispatcher.startContinuous();
+        for(int i=0;i<20;i++)
+            dispatcher.addJob(new TestJob("j" + i, i, 10));
+        assertFalse(dispatcher.stopContinuous());
+        assertEquals(20, finished.get());
+    }
+
+    @Test(timeout=10000)
+    public void finishedJobsAreNotKept(){
+        dispatcher.addJob(new TestJob("a", 1));
+        assertFalse(dispatcher.start());
+        dispatcher.newGeneration();
+        dispatcher.startContinuous();
+        dispatcher.addJob(new TestJob("b", 1));
+        assertFalse(dispatcher.stopContinuous());
+        assertFalse(dispatcher.getFinishedJobs().containsKey("b"));
+    }
+
+    @Test(timeout=10000)
+    public void startingTwiceIsRefused(){
+        dispatcher.startContinuous();
+        try{
+            dispatcher.startContinuous();
+            fail("Already running");
+        }
+        catch(IllegalStateException e){
+        }
+        try{
+            dispatcher.start();
+            fail("Already running");
+        }
+        catch(IllegalStateException e){
+        }
+    }
+
+    @Test(timeout=10000)
+    public void aGenerationMayBeRunOnceStopped(){
+        dispatcher.startContinuous();
+        dispatcher.addJob(new TestJob("a", 1));
+        assertFalse(dispatcher.stopContinuous());
+        dispatcher.newGeneration();
+        dispatcher.addJob(new TestJob("b", 2));
+        assertFalse(dispatcher.start());
+        assertEquals(4, dispatcher.getFinishedJobs().get("b").getResult());
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of running jobs as a dependency graph.
+ * @author gg32
+ */
+public class DependentJobTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+    private List<String> order;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+        order = Collections.synchronizedList(new ArrayList<String>());
+        dispatcher.addJobListener(new JobListener<TestJob>() {
+            @Override
+            public void jobFinished(TestJob job) {
+                order.add(job.getID());
+            }
+        });
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void jobsRunAfterWhatTheyDependUpon(){
+        //Added before what they depend upon, which is slower than the rest
+        dispatcher.addJob(new Sum("d", "b", "c"));
+        dispatcher.addJob(new Sum("b", "a"));
+        dispatcher.addJob(new Sum("c", "a"));
+        dispatcher.addJob(new TestJob("a", 1, 100));
+        dispatcher.addJob(new TestJob("other", 1));
+        assertFalse(dispatcher.start());
+        assertEquals("other", order.get(0));
+        assertEquals("a", order.get(1));
+        assertEquals("d", order.get(4));
+        Map<String, TestJob> finished = dispatcher.getFinishedJobs();
+        assertEquals(2, finished.get("b").getResult());
+        assertEquals(2, finished.get("c").getResult());
+        assertEquals(4, finished.get("d").getResult());
+    }
+
+    @Test(timeout=10000)
+    public void aDependencyFinishedEarlierInTheGenerationIsSatisfied(){
+        dispatcher.addJobListener(new JobListener<TestJob>() {
+            @Override
+            public void jobFinished(TestJob job) {
+                if(job.getID().equals("a"))
+                    dispatcher.addJob(new Sum("b", "a"));
+            }
+        });
+        dispatcher.addJob(new TestJob("a", 3));
+        assertFalse(dispatcher.start());
+        assertEquals(6, dispatcher.getFinishedJobs().get("b").getResult());
+    }
+
+    @Test(timeout=10000)
+    public void jobsWaitingOnMissingJobsAreLost(){
+        dispatcher.addJob(new Sum("orphan", "missing"));
+        dispatcher.addJob(new Sum("x", "y"));
+        dispatcher.addJob(new Sum("y", "x"));
+        dispatcher.addJob(new TestJob("ok", 1));
+        assertTrue(dispatcher.start());
+        assertEquals(3, dispatcher.getLostJobs().size());
+        assertTrue(dispatcher.getLostJobs().containsKey("orphan"));
+        assertEquals(Arrays.asList("ok"), order);
+    }
+
+    @Test(timeout=10000)
+    public void jobsDependingOnAFailedJobAreLost(){
+        dispatcher.setRetryPolicy(new RetryPolicy(1));
+        dispatcher.addJob(new TestJob("bad", 1).failing(1));
+        dispatcher.addJob(new Sum("child", "bad"));
+        dispatcher.addJob(new Sum("grandchild", "child"));
+        assertTrue(dispatcher.start());
+        assertEquals(Arrays.asList("bad", "child", "grandchild"),
+                new ArrayList<>(dispatcher.getLostJobs().keySet()));
+        assertTrue(order.isEmpty());
+    }
+
+    /**
+     * A job whose result is the sum of those it depends upon.
+     */
+    private static class Sum extends TestJob implements DependentJob {
+
+        private static final long serialVersionUID = 1L;
+        private final List<String> dependencies;
+        private int total;
+
+        Sum(String id, String... dependencies){
+            super(id, 0);
+            this.dependencies = Arrays.asList(dependencies);
+        }
+
+        @Override
+        public Collection<String> getDependencies(){
+            return dependencies;
+        }
+
+        @Override
+        public void setDependencyResults(Map<String, ? extends Job> results){
+            assertEquals(dependencies.size(), results.size());
+            for(Job job : results.values())
+                total += ((TestJob)job).getResult();
+        }
+
+        @Override
+        public int getResult(){
+            return total;
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of keeping finished jobs on disk.
+ * @author gg32
+ */
+public class DiskResultStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiskResultStore<TestJob> store;
+
+    @Before
+    public void setUp() throws IOException{
+        store = new DiskResultStore<>(new File(folder.getRoot(), "results"));
+    }
+
+    @After
+    public void tearDown() throws IOException{
+        store.close();
+    }
+
+    @Test
+    public void jobsAreReadBackAsCopies(){
+        TestJob job = new TestJob("a", 1);
+        job.run();
+        assertNull(store.put("a", job));
+        TestJob read = store.get("a");
+        assertNotSame(job, read);
+        assertEquals("a", read.getID());
+        assertEquals(2, read.getResult());
+        assertTrue(store.containsKey("a"));
+        assertNull(store.get("b"));
+    }
+
+    @Test
+    public void aJobPutAgainReplacesTheOld(){
+        store.put("a", new TestJob("a", 1));
+        TestJob done = new TestJob("a", 1);
+        done.run();
+        //The old job is not read back
+        assertNull(store.put("a", done));
+        assertEquals(1, store.size());
+        assertEquals(2, store.get("a").getResult());
+    }
+
+    @Test
+    public void jobsMayBeIteratedRemovedAndCleared(){
+        for(int i=0;i<100;i++)
+            store.put("j" + i, new TestJob("j" + i, i));
+        Set<String> seen = new HashSet<>();
+        for(Map.Entry<String, TestJob> e : store.entrySet()){
+            assertEquals(e.getKey(), e.getValue().getID());
+            seen.add(e.getKey());
+        }
+        assertEquals(100, seen.size());
+        store.remove("j5");
+        assertFalse(store.containsKey("j5"));
+        assertEquals(99, store.size());
+        store.clear();
+        assertTrue(store.isEmpty());
+        store.put("again", new TestJob("again", 3));
+        assertEquals("again", store.get("again").getID());
+    }
+
+    @Test(timeout=10000)
+    public void aDispatcherKeepsItsResultsInTheStore(){
+        LocalDispatcher<TestJob> dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+        try{
+            dispatcher.setResultStore(store);
+            for(int g=0;g<2;g++){
+                for(int i=0;i<50;i++)
+                    dispatcher.addJob(new TestJob("g" + g + "j" + i, i));
+                assertFalse(dispatcher.start());
+                assertSame(store, dispatcher.getResults());
+                assertEquals(50, store.size());
+                assertEquals(98, store.get("g" + g + "j49").getResult());
+                HashMap<String, TestJob> copied = dispatcher.getFinishedJobs();
+                assertEquals(50, copied.size());
+                dispatcher.newGeneration();
+            }
+        }
+        finally{
+            dispatcher.end();
+        }
+    }
+
+}
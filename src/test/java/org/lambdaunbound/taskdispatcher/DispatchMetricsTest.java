@@ -0,0 +1,95 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of timing each stage of dispatch, and of publishing the timings.
+ * @author gg32
+ */
+public class DispatchMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.getMetrics().unregisterMBeans();
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void everyJobIsTimed(){
+        for(int i=0;i<30;i++)
+            dispatcher.addJob(new TestJob("j" + i, i, 1));
+        assertFalse(dispatcher.start());
+        DispatchMetrics metrics = dispatcher.getMetrics();
+        assertEquals(30, metrics.getCompleted());
+        assertEquals(30, metrics.getHistogram(DispatchMetrics.EXECUTION).getCount());
+        assertEquals(30, metrics.getHistogram(DispatchMetrics.TURNAROUND).getCount());
+        assertEquals(30, metrics.getHistogram(DispatchMetrics.QUEUE_WAIT).getCount());
+        assertTrue(metrics.getHistogram(DispatchMetrics.EXECUTION).percentile(0.5)>=1000000);
+        assertTrue(metrics.getJobsPerSecond()>0);
+    }
+
+    @Test(timeout=10000)
+    public void theMetricsArePublishedOverJmx() throws Exception{
+        dispatcher.getMetrics().registerMBeans("test");
+        dispatcher.addJob(new TestJob("a", 1));
+        assertFalse(dispatcher.start());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName dispatcherName = new ObjectName("org.lambdaunbound.taskdispatcher:type=Dispatcher,name=\"test\"");
+        assertEquals(1L, server.getAttribute(dispatcherName, "Completed"));
+        ObjectName execution = new ObjectName("org.lambdaunbound.taskdispatcher:type=Latency,name=\"test\",stage="
+                + DispatchMetrics.EXECUTION);
+        assertEquals(1L, server.getAttribute(execution, "Count"));
+        dispatcher.getMetrics().unregisterMBeans();
+        assertFalse(server.isRegistered(dispatcherName));
+    }
+
+    @Test(timeout=10000)
+    public void theMetricsMayBeDumpedToCsv() throws IOException{
+        File csv = new File(folder.getRoot(), "metrics.csv");
+        dispatcher.getMetrics().startCsvDump(csv, 10000);
+        dispatcher.addJob(new TestJob("a", 1));
+        assertFalse(dispatcher.start());
+        dispatcher.getMetrics().stopCsvDump();
+        List<String> lines = new ArrayList<>();
+        try(BufferedReader in = new BufferedReader(new FileReader(csv))){
+            String line;
+            while((line = in.readLine())!=null)
+                lines.add(line);
+        }
+        assertEquals("time,generation,runner,stage,count,mean,p50,p90,p99,max", lines.get(0));
+        boolean execution = false;
+        for(String line : lines)
+            execution |= line.contains(",all," + DispatchMetrics.EXECUTION + ",1,");
+        assertTrue(lines.toString(), execution);
+    }
+
+}
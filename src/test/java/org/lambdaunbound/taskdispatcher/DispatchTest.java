@@ -0,0 +1,72 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of running generations of jobs on a dispatcher, which is told of each
+ * finished job rather than polling for them.
+ * @author gg32
+ */
+public class DispatchTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(4);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void runsEveryJobOfAGeneration(){
+        for(int i=0;i<1000;i++)
+            dispatcher.addJob(new TestJob("j" + i, i));
+        assertFalse(dispatcher.start());
+        Map<String, TestJob> finished = dispatcher.getFinishedJobs();
+        assertEquals(1000, finished.size());
+        for(int i=0;i<1000;i++)
+            assertEquals(i*2, finished.get("j" + i).getResult());
+    }
+
+    @Test(timeout=10000)
+    public void returnsAsSoonAsTheLastJobFinishes(){
+        //Each generation used to wait up to two seconds to notice it was done
+        long started = System.nanoTime();
+        for(int g=0;g<5;g++){
+            for(int i=0;i<10;i++)
+                dispatcher.addJob(new TestJob("g" + g + "j" + i, i));
+            assertFalse(dispatcher.start());
+            assertEquals(10, dispatcher.getFinishedJobs().size());
+            dispatcher.newGeneration();
+        }
+        long millis = (System.nanoTime()-started)/1000000;
+        assertTrue("Took " + millis + "ms", millis<2000);
+    }
+
+    @Test(timeout=10000)
+    public void anEmptyGenerationFinishesAtOnce(){
+        assertFalse(dispatcher.start());
+        assertTrue(dispatcher.getFinishedJobs().isEmpty());
+    }
+
+    @Test(timeout=10000)
+    public void aFailedJobFailsTheGeneration(){
+        dispatcher.addJob(new TestJob("ok", 1));
+        dispatcher.addJob(new TestJob("bad", 1).failing(1));
+        assertTrue(dispatcher.start());
+        assertNotNull(dispatcher.getError());
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests that a dispatcher whose run failed while jobs were still running may
+ * be used again, with the slots of those jobs freed once they stop.
+ * @author gg32
+ */
+public class FailedRunReuseTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(1);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void aDispatcherFailedWhileAJobRunsMayBeReused(){
+        dispatcher.addJob(new TestJob("slow", 1, 500));
+        Thread aborter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    Thread.sleep(100);
+                }
+                catch(InterruptedException e){
+                }
+                dispatcher.jobFailed("slow", "abort");
+            }
+        });
+        aborter.start();
+        assertTrue(dispatcher.start());
+        runAnotherGeneration();
+    }
+
+    @Test(timeout=10000)
+    public void aDispatcherWhoseSourceFailedMayBeReused(){
+        Iterator<TestJob> source = new Iterator<TestJob>() {
+            private int taken = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public TestJob next() {
+                taken++;
+                if(taken==1)
+                    return new TestJob("quick", 1);
+                if(taken==2)
+                    return new TestJob("slow", 1, 300);
+                throw new NoSuchElementException("The source broke");
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        //The slow job is queued behind the quick one, so is still running when the source breaks
+        dispatcher.setPrefetch(1);
+        assertTrue(dispatcher.start(source));
+        runAnotherGeneration();
+    }
+
+    private void runAnotherGeneration(){
+        dispatcher.newGeneration();
+        for(int i=0;i<5;i++)
+            dispatcher.addJob(new TestJob("j" + i, i));
+        assertFalse(dispatcher.start());
+        assertEquals(5, dispatcher.getFinishedJobs().size());
+        assertEquals(0, dispatcher.getProgress().getInFlight());
+    }
+
+}
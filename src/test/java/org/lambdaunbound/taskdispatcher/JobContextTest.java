@@ -0,0 +1,204 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.ForkJoinDispatcher;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of forking and joining child jobs from a running job.
+ * @author gg32
+ */
+public class JobContextTest {
+
+    @Test(timeout=10000)
+    public void aJobMaySplitItsWorkInAForkJoinPool(){
+        ForkJoinDispatcher<Sum> dispatcher = new ForkJoinDispatcher<>(3);
+        dispatcher.setUp();
+        try{
+            dispatcher.addJob(new Sum("fork-pool", 0, 10000));
+            assertFalse(dispatcher.start());
+            assertEquals(sum(0, 10000), dispatcher.getFinishedJobs().get("fork-pool").total);
+        }
+        finally{
+            dispatcher.end();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void aJobMaySplitItsWorkOnAThreadOfItsOwn(){
+        LocalDispatcher<Sum> dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+        try{
+            dispatcher.addJob(new Sum("fork-thread", 0, 10000));
+            dispatcher.addJob(new Sum("fork-other", 5, 500));
+            assertFalse(dispatcher.start());
+            assertEquals(sum(0, 10000), dispatcher.getFinishedJobs().get("fork-thread").total);
+            assertEquals(sum(5, 500), dispatcher.getFinishedJobs().get("fork-other").total);
+        }
+        finally{
+            dispatcher.end();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void eachJobHasItsOwnContext(){
+        final List<String> ids = new ArrayList<>();
+        Job job = new Job(){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getID(){
+                return "context-job";
+            }
+
+            @Override
+            public void run(){
+                ids.add(JobContext.current().getJobID());
+            }
+        };
+        JobContext.run(job);
+        assertEquals(Arrays.asList("context-job"), ids);
+        assertNull(JobContext.current().getJobID());
+    }
+
+    @Test(timeout=10000)
+    public void manyChildrenMayBeForkedAndJoined(){
+        JobContext context = JobContext.current();
+        List<JobContext.Fork<Sum>> forks = new ArrayList<>();
+        for(int i=0;i<50;i++)
+            forks.add(context.fork(new Sum("fork-join" + i, 0, 100)));
+        for(JobContext.Fork<Sum> fork : forks){
+            Sum child = fork.join();
+            assertTrue(fork.isDone());
+            assertSame(fork.getJob(), child);
+            assertEquals(sum(0, 100), child.total);
+        }
+    }
+
+    @Test(timeout=10000)
+    public void aJoinedChildIsRunHereIfThePoolIsBusy() throws InterruptedException{
+        //Keep every thread of the shared pool busy, so the child is not started
+        final Object gate = new Object();
+        final boolean[] open = {false};
+        JobContext context = JobContext.current();
+        List<JobContext.Fork<Blocker>> blockers = new ArrayList<>();
+        for(int i=0;i<Runtime.getRuntime().availableProcessors();i++)
+            blockers.add(context.fork(new Blocker(gate, open)));
+        Thread.sleep(100);
+        JobContext.Fork<Sum> fork = context.fork(new Sum("fork-busy", 0, 10));
+        Sum child = fork.join();
+        assertSame(Thread.currentThread(), child.ranOn);
+        assertEquals(sum(0, 10), child.total);
+        synchronized(gate){
+            open[0] = true;
+            gate.notifyAll();
+        }
+        for(JobContext.Fork<Blocker> b : blockers)
+            b.join();
+    }
+
+    @Test(timeout=10000)
+    public void aFailedChildFailsTheJoin(){
+        JobContext context = JobContext.current();
+        JobContext.Fork<TestJob> fork = context.fork(new TestJob("fork-fails", 1).failing(1));
+        try{
+            fork.join();
+            fail();
+        }
+        catch(RuntimeException e){
+            assertTrue(fork.isDone());
+        }
+        try{
+            context.invokeAll(Arrays.asList(new TestJob("fork-fine", 1), new TestJob("fork-fails-too", 1).failing(1)));
+            fail();
+        }
+        catch(RuntimeException e){
+            assertTrue(e.getMessage().contains("fork-fails-too"));
+        }
+    }
+
+    private static long sum(int from, int to){
+        long total = 0;
+        for(int i=from;i<to;i++)
+            total += i;
+        return total;
+    }
+
+    /**
+     * Sums a range of numbers, splitting it in half until it is small.
+     */
+    static class Sum implements Job {
+        private static final long serialVersionUID = 1L;
+        private static final int GRAIN = 100;
+        private final String id;
+        private final int from;
+        private final int to;
+        long total;
+        transient Thread ranOn;
+
+        Sum(String id, int from, int to){
+            this.id = id;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String getID(){
+            return id;
+        }
+
+        @Override
+        public void run(){
+            ranOn = Thread.currentThread();
+            if(to-from<=GRAIN){
+                total = sum(from, to);
+                return;
+            }
+            int mid = (from+to)>>>1;
+            Sum low = new Sum(id + "l", from, mid);
+            Sum high = new Sum(id + "h", mid, to);
+            JobContext.current().invokeAll(Arrays.asList(low, high));
+            total = low.total+high.total;
+        }
+    }
+
+    /**
+     * Holds a thread of the pool until its gate is opened.
+     */
+    private static class Blocker implements Job {
+        private static final long serialVersionUID = 1L;
+        private final Object gate;
+        private final boolean[] open;
+
+        Blocker(Object gate, boolean[] open){
+            this.gate = gate;
+            this.open = open;
+        }
+
+        @Override
+        public String getID(){
+            return "blocker";
+        }
+
+        @Override
+        public void run(){
+            synchronized(gate){
+                while(!open[0]){
+                    try{
+                        gate.wait();
+                    }
+                    catch(InterruptedException e){
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of submitted futures and JobListeners.
+ * @author gg32
+ */
+public class JobFutureTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void futuresHoldTheFinishedJobs() throws Exception{
+        List<JobFuture<TestJob>> futures = new ArrayList<>();
+        for(int i=0;i<20;i++)
+            futures.add(dispatcher.submit(new TestJob("j" + i, i)));
+        assertFalse(futures.get(0).isDone());
+        assertFalse(dispatcher.start());
+        for(int i=0;i<20;i++){
+            JobFuture<TestJob> future = futures.get(i);
+            assertTrue(future.isDone());
+            assertEquals("j" + i, future.getID());
+            assertEquals(i*2, future.get().getResult());
+        }
+    }
+
+    @Test(timeout=10000)
+    public void futuresAreCompletedWhileTheDispatcherRuns() throws Exception{
+        final JobFuture<TestJob> quick = dispatcher.submit(new TestJob("quick", 1));
+        dispatcher.addJob(new TestJob("slow", 1, 1000));
+        final long[] waited = new long[1];
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    quick.get(5, TimeUnit.SECONDS);
+                    waited[0] = System.nanoTime();
+                }
+                catch(Exception e){
+                }
+            }
+        });
+        waiter.start();
+        assertFalse(dispatcher.start());
+        long returned = System.nanoTime();
+        waiter.join();
+        assertTrue(waited[0]!=0);
+        assertTrue(waited[0]<returned);
+    }
+
+    @Test(timeout=10000)
+    public void listenersAreToldOfEveryJob(){
+        final List<String> heard = Collections.synchronizedList(new ArrayList<String>());
+        dispatcher.addJobListener(new JobListener<TestJob>() {
+            @Override
+            public void jobFinished(TestJob job) {
+                heard.add(job.getID());
+            }
+        });
+        for(int i=0;i<50;i++)
+            dispatcher.addJob(new TestJob("j" + i, i));
+        assertFalse(dispatcher.start());
+        assertEquals(50, heard.size());
+        assertEquals(dispatcher.getFinishedJobs().keySet(), new HashSet<>(heard));
+    }
+
+    @Test(timeout=10000)
+    public void aFailedRunFailsTheOutstandingFutures() throws Exception{
+        JobFuture<TestJob> bad = dispatcher.submit(new TestJob("bad", 1).failing(1));
+        assertTrue(dispatcher.start());
+        try{
+            bad.get();
+            fail("The job failed");
+        }
+        catch(ExecutionException e){
+        }
+    }
+
+}
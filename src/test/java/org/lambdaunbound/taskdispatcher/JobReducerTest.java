@@ -0,0 +1,68 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of reducing finished jobs as they finish, without retaining them.
+ * @author gg32
+ */
+public class JobReducerTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+    private JobReducer<TestJob, Long> sum;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+        sum = new JobReducer<TestJob, Long>(0L) {
+            @Override
+            protected Long reduce(Long result, TestJob job) {
+                return result+job.getResult();
+            }
+        };
+        dispatcher.addJobListener(sum);
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void everyFinishedJobIsReduced(){
+        for(int i=0;i<100;i++)
+            dispatcher.addJob(new TestJob("j" + i, i));
+        assertFalse(dispatcher.start());
+        assertEquals(2*4950L, (long)sum.getResult());
+        assertEquals(100, dispatcher.getFinishedJobs().size());
+    }
+
+    @Test(timeout=10000)
+    public void finishedJobsNeedNotBeRetained(){
+        dispatcher.setRetainFinishedJobs(false);
+        for(int i=0;i<100;i++)
+            dispatcher.addJob(new TestJob("j" + i, i));
+        assertFalse(dispatcher.start());
+        assertEquals(2*4950L, (long)sum.getResult());
+        assertTrue(dispatcher.getFinishedJobs().isEmpty());
+    }
+
+    @Test(timeout=10000)
+    public void theResultMayBeResetForEachGeneration(){
+        dispatcher.addJob(new TestJob("a", 5));
+        assertFalse(dispatcher.start());
+        assertEquals(10L, (long)sum.getResult());
+        dispatcher.newGeneration();
+        sum.reset(1L);
+        dispatcher.addJob(new TestJob("b", 2));
+        assertFalse(dispatcher.start());
+        assertEquals(5L, (long)sum.getResult());
+    }
+
+}
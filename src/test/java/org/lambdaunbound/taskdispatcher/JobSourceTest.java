@@ -0,0 +1,117 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of taking jobs lazily from a source given to start.
+ * @author gg32
+ */
+public class JobSourceTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+    private AtomicInteger finished;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+        finished = new AtomicInteger();
+        dispatcher.addJobListener(new JobListener<TestJob>() {
+            @Override
+            public void jobFinished(TestJob job) {
+                finished.incrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void everyJobOfTheSourceIsRun(){
+        Source source = new Source(500);
+        assertFalse(dispatcher.start(source));
+        assertEquals(500, dispatcher.getFinishedJobs().size());
+        assertEquals(998, dispatcher.getFinishedJobs().get("j499").getResult());
+    }
+
+    @Test(timeout=10000)
+    public void onlyAsManyJobsAsThereIsSpaceForAreTaken(){
+        dispatcher.setSourceLookahead(3);
+        dispatcher.setAdaptivePrefetch(false);
+        Source source = new Source(200);
+        assertFalse(dispatcher.start(source));
+        //Two runners, each with one job, plus the lookahead
+        assertTrue("Held " + source.mostHeld, source.mostHeld<=5);
+        assertEquals(200, finished.get());
+    }
+
+    @Test(timeout=10000)
+    public void addedJobsAreRunAlongsideTheSource(){
+        dispatcher.addJob(new TestJob("added", 21));
+        assertFalse(dispatcher.start(new Source(10)));
+        assertEquals(11, dispatcher.getFinishedJobs().size());
+        assertEquals(42, dispatcher.getFinishedJobs().get("added").getResult());
+    }
+
+    @Test(timeout=10000)
+    public void aBrokenSourceFailsTheRun(){
+        Iterator<TestJob> broken = new Source(5){
+            @Override
+            public TestJob next(){
+                if(taken==3)
+                    throw new IllegalStateException("Broken");
+                return super.next();
+            }
+        };
+        assertTrue(dispatcher.start(broken));
+        assertTrue(dispatcher.getError().contains("Broken"));
+    }
+
+    /**
+     * A source of quick jobs that records the most it has handed out that
+     * have not yet finished.
+     */
+    private class Source implements Iterator<TestJob> {
+
+        private final int jobs;
+        int taken = 0;
+        int mostHeld = 0;
+
+        Source(int jobs){
+            this.jobs = jobs;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return taken<jobs;
+        }
+
+        @Override
+        public TestJob next(){
+            if(taken>=jobs)
+                throw new NoSuchElementException();
+            TestJob job = new TestJob("j" + taken, taken, 1);
+            taken++;
+            mostHeld = Math.max(mostHeld, taken-finished.get());
+            return job;
+        }
+
+        @Override
+        public void remove(){
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
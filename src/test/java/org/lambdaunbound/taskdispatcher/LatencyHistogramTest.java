@@ -0,0 +1,52 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests of the latency histogram of a stage of dispatch.
+ * @author gg32
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void anEmptyHistogramReadsZero(){
+        LatencyHistogram h = new LatencyHistogram("stage");
+        assertEquals("stage", h.getStage());
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.percentile(0.5));
+        assertEquals(0.0, h.getMean(), 0);
+    }
+
+    @Test
+    public void percentilesAreWithinABucketOfTheTruth(){
+        LatencyHistogram h = new LatencyHistogram("stage");
+        for(int i=1;i<=1000;i++)
+            h.record(i*1000L);
+        assertEquals(1000, h.getCount());
+        assertEquals(500500L*1000/1000/1e6, h.getMean(), 1e-9);
+        assertEquals(1.0, h.getMax(), 0);
+        //Each bucket is a quarter of a power of two wide
+        long p50 = h.percentile(0.5);
+        assertTrue(p50 + "", p50>=500000&&p50<=500000*5/4);
+        long p99 = h.percentile(0.99);
+        assertTrue(p99 + "", p99>=990000&&p99<=1000000);
+        assertEquals(1000000, h.percentile(1));
+    }
+
+    @Test
+    public void batchesAreRecordedOncePerJob(){
+        LatencyHistogram h = new LatencyHistogram("stage");
+        h.record(2000, 10);
+        h.record(-5);
+        h.record(7, 0);
+        assertEquals(11, h.getCount());
+        assertEquals(0, h.percentile(0.05));
+        assertEquals(2000, h.percentile(0.5), 2000/4);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0.0, h.getMax(), 0);
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of dispatching generations of jobs pipelined, one after another.
+ * @author gg32
+ */
+public class PipelinedTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.stopContinuous();
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void eachGenerationKeepsItsOwnResults() throws InterruptedException{
+        dispatcher.startPipelined();
+        Generation<TestJob> first = dispatcher.getGeneration();
+        for(int i=0;i<20;i++)
+            dispatcher.addJob(new TestJob("first" + i, i, 1));
+        dispatcher.newGeneration();
+        Generation<TestJob> second = dispatcher.getGeneration();
+        assertNotSame(first, second);
+        assertEquals(first.getNumber()+1, second.getNumber());
+        for(int i=0;i<10;i++)
+            dispatcher.addJob(new TestJob("second" + i, i, 1));
+        dispatcher.newGeneration();
+        assertFalse(first.await());
+        assertFalse(second.await());
+        assertEquals(20, first.getFinishedJobs().size());
+        assertEquals(10, second.getFinishedJobs().size());
+        assertEquals(38, first.getFinishedJobs().get("first19").getResult());
+        assertFalse(second.getFinishedJobs().containsKey("first0"));
+    }
+
+    @Test(timeout=10000)
+    public void theNextGenerationRunsWhileTheLastFinishes() throws InterruptedException{
+        dispatcher.startPipelined();
+        Generation<TestJob> first = dispatcher.getGeneration();
+        dispatcher.addJob(new TestJob("straggler", 1, 500));
+        dispatcher.newGeneration();
+        Generation<TestJob> second = dispatcher.getGeneration();
+        for(int i=0;i<5;i++)
+            dispatcher.addJob(new TestJob("next" + i, i, 1));
+        dispatcher.newGeneration();
+        assertFalse(second.await());
+        //The second generation used the free runner, without waiting
+        assertFalse(first.isDone());
+        assertFalse(first.await());
+        assertEquals(1, first.getFinishedJobs().size());
+    }
+
+    @Test(timeout=10000)
+    public void stoppingClosesTheCurrentGeneration() throws InterruptedException{
+        dispatcher.startPipelined();
+        Generation<TestJob> g = dispatcher.getGeneration();
+        dispatcher.addJob(new TestJob("a", 1));
+        dispatcher.addJob(new TestJob("b", 2));
+        assertFalse(dispatcher.stopContinuous());
+        assertTrue(g.isDone());
+        assertEquals(2, g.getFinishedJobs().size());
+    }
+
+    @Test(timeout=10000)
+    public void lostJobsAreKeptWithTheirGeneration() throws InterruptedException{
+        dispatcher.setRetryPolicy(new RetryPolicy(1));
+        dispatcher.startPipelined();
+        Generation<TestJob> g = dispatcher.getGeneration();
+        dispatcher.addJob(new TestJob("fine", 1));
+        dispatcher.addJob(new TestJob("broken", 1).failing(5));
+        dispatcher.newGeneration();
+        assertTrue(g.await());
+        assertTrue(g.getLostJobs().containsKey("broken"));
+        assertEquals(1, g.getFinishedJobs().size());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void thereIsNoGenerationUnlessPipelined(){
+        dispatcher.getGeneration();
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of the order in which waiting jobs are issued.
+ * @author gg32
+ */
+public class PrioritisedJobTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+    private List<String> order;
+
+    @Before
+    public void setUp(){
+        //One runner, so jobs are run in the order they are issued
+        dispatcher = new LocalDispatcher<>(1);
+        dispatcher.setUp();
+        order = Collections.synchronizedList(new ArrayList<String>());
+        dispatcher.addJobListener(new JobListener<TestJob>() {
+            @Override
+            public void jobFinished(TestJob job) {
+                order.add(job.getID());
+            }
+        });
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void higherPrioritiesAreIssuedFirst(){
+        dispatcher.addJob(new Prioritised("low", 1, Long.MAX_VALUE, 0));
+        dispatcher.addJob(new Prioritised("high", 5, Long.MAX_VALUE, 0));
+        dispatcher.addJob(new Prioritised("middle", 3, Long.MAX_VALUE, 0));
+        assertFalse(dispatcher.start());
+        assertEquals(Arrays.asList("high", "middle", "low"), order);
+    }
+
+    @Test(timeout=10000)
+    public void earlierDeadlinesThenLongerJobsBreakTies(){
+        dispatcher.addJob(new Prioritised("late", 1, 2000, 0));
+        dispatcher.addJob(new Prioritised("short", 1, 1000, 1));
+        dispatcher.addJob(new Prioritised("long", 1, 1000, 9));
+        assertFalse(dispatcher.start());
+        assertEquals(Arrays.asList("long", "short", "late"), order);
+    }
+
+    @Test(timeout=10000)
+    public void equalJobsAreIssuedInTheOrderAdded(){
+        dispatcher.addJob(new TestJob("a", 1));
+        dispatcher.addJob(new Prioritised("b", 0, Long.MAX_VALUE, 0));
+        dispatcher.addJob(new TestJob("c", 1));
+        dispatcher.addJob(new Prioritised("urgent", 1, Long.MAX_VALUE, 0));
+        assertFalse(dispatcher.start());
+        assertEquals(Arrays.asList("urgent", "a", "b", "c"), order);
+    }
+
+    @Test(timeout=10000)
+    public void cheapJobsAreRunInlineWithAContextOfTheirOwn(){
+        dispatcher.setInlineThreshold(10);
+        Prioritised cheap = new Prioritised("cheap", 0, Long.MAX_VALUE, 1);
+        Prioritised dear = new Prioritised("dear", 0, Long.MAX_VALUE, 100);
+        dispatcher.addJob(cheap);
+        dispatcher.addJob(dear);
+        assertFalse(dispatcher.start());
+        assertSame(Thread.currentThread(), cheap.ranOn);
+        assertNotSame(Thread.currentThread(), dear.ranOn);
+        assertEquals("cheap", cheap.context);
+        assertEquals("dear", dear.context);
+        assertEquals(2, dispatcher.getFinishedJobs().size());
+    }
+
+    @Test(timeout=10000)
+    public void cheapJobsMayBeTakenFromASource(){
+        dispatcher.setInlineThreshold(10);
+        List<TestJob> jobs = new ArrayList<>();
+        for(int i=0;i<20;i++)
+            jobs.add(new Prioritised("cheap" + i, 0, Long.MAX_VALUE, i%2==0 ? 1 : 100));
+        assertFalse(dispatcher.start(jobs.iterator()));
+        assertEquals(20, dispatcher.getFinishedJobs().size());
+        for(int i=0;i<20;i++){
+            Prioritised job = (Prioritised)jobs.get(i);
+            assertEquals(i%2==0, job.ranOn==Thread.currentThread());
+        }
+    }
+
+    @Test(timeout=10000)
+    public void aSourceOfOnlyCheapJobsIsRunInline(){
+        dispatcher.setInlineThreshold(10);
+        List<TestJob> jobs = new ArrayList<>();
+        for(int i=0;i<5;i++)
+            jobs.add(new Prioritised("inline" + i, 0, Long.MAX_VALUE, 1));
+        assertFalse(dispatcher.start(jobs.iterator()));
+        assertEquals(5, order.size());
+    }
+
+    private static class Prioritised extends TestJob implements PrioritisedJob {
+
+        private static final long serialVersionUID = 1L;
+        private final int priority;
+        private final long deadline;
+        private final long cost;
+        volatile Thread ranOn;
+        volatile String context;
+
+        Prioritised(String id, int priority, long deadline, long cost){
+            super(id, 1);
+            this.priority = priority;
+            this.deadline = deadline;
+            this.cost = cost;
+        }
+
+        @Override
+        public void run(){
+            ranOn = Thread.currentThread();
+            context = JobContext.current().getJobID();
+            super.run();
+        }
+
+        @Override
+        public int getPriority(){
+            return priority;
+        }
+
+        @Override
+        public long getDeadline(){
+            return deadline;
+        }
+
+        @Override
+        public long getEstimatedCost(){
+            return cost;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.cluster.MachinePanel;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of the progress counters, and of the TaskProgress that samples them.
+ * @author gg32
+ */
+public class ProgressCountersTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void everyJobIsCounted(){
+        dispatcher.setRetryPolicy(new RetryPolicy(2));
+        for(int i=0;i<20;i++)
+            dispatcher.addJob(new TestJob("j" + i, i));
+        dispatcher.addJob(new TestJob("flaky", 1).failing(1));
+        assertFalse(dispatcher.start());
+        ProgressCounters c = dispatcher.getProgress();
+        assertEquals(0, c.getGeneration());
+        assertEquals(21, c.getAdded());
+        assertEquals(22, c.getIssued());
+        assertEquals(21, c.getCompleted());
+        assertEquals(1, c.getFailed());
+        assertEquals(0, c.getLost());
+        assertEquals(0, c.getInFlight());
+    }
+
+    @Test(timeout=10000)
+    public void eachGenerationIsCountedAfresh(){
+        dispatcher.addJob(new TestJob("a", 1));
+        assertFalse(dispatcher.start());
+        dispatcher.newGeneration();
+        ProgressCounters c = dispatcher.getProgress();
+        assertEquals(1, c.getGeneration());
+        assertEquals(0, c.getCompleted());
+        dispatcher.addJob(new TestJob("b", 1));
+        dispatcher.addJob(new TestJob("c", 1));
+        assertFalse(dispatcher.start());
+        assertEquals(2, dispatcher.getProgress().getCompleted());
+    }
+
+    @Test(timeout=10000)
+    public void theTaskProgressIsTickedForEveryJob(){
+        Ticks ticks = new Ticks();
+        dispatcher.addTaskProgress(ticks);
+        dispatcher.setProgressInterval(10);
+        for(int i=0;i<50;i++)
+            dispatcher.addJob(new TestJob("j" + i, i, 2));
+        assertFalse(dispatcher.start());
+        assertEquals(50, ticks.ticks.get()+ticks.summaries.get());
+        assertTrue(ticks.summaries.get()>=1);
+    }
+
+    private static class Ticks implements TaskProgress {
+
+        final AtomicInteger ticks = new AtomicInteger();
+        final AtomicInteger summaries = new AtomicInteger();
+
+        @Override
+        public void setLimit(int max){
+        }
+
+        @Override
+        public void message(String description){
+        }
+
+        @Override
+        public void tick(){
+            ticks.incrementAndGet();
+        }
+
+        @Override
+        public void tick(String message){
+            summaries.incrementAndGet();
+        }
+
+        @Override
+        public void fail(String message){
+        }
+
+        @Override
+        public void setPort(int port){
+        }
+
+        @Override
+        public MachinePanel addRemoteHost(String hostname){
+            return null;
+        }
+    }
+
+}
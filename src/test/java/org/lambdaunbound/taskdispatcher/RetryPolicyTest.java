@@ -0,0 +1,122 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of retrying failed jobs under a RetryPolicy.
+ * @author gg32
+ */
+public class RetryPolicyTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test
+    public void theBackoffDoublesUpToTheMaximum(){
+        RetryPolicy policy = new RetryPolicy(5, 100, 500);
+        TestJob job = new TestJob("j", 1);
+        assertEquals(5, policy.getMaxAttempts(job));
+        assertEquals(100, policy.getBackoff(job, 1));
+        assertEquals(200, policy.getBackoff(job, 2));
+        assertEquals(400, policy.getBackoff(job, 3));
+        assertEquals(500, policy.getBackoff(job, 4));
+        assertEquals(500, policy.getBackoff(job, 40));
+        assertEquals(0, policy.getTimeout(job));
+        assertEquals(0, new RetryPolicy(2).getBackoff(job, 3));
+    }
+
+    @Test(timeout=10000)
+    public void aJobIsRetriedUntilItSucceeds(){
+        dispatcher.setRetryPolicy(new RetryPolicy(3));
+        dispatcher.addJob(new TestJob("flaky", 4).failing(2));
+        dispatcher.addJob(new TestJob("ok", 1));
+        assertFalse(dispatcher.start());
+        assertEquals(8, dispatcher.getFinishedJobs().get("flaky").getResult());
+        assertTrue(dispatcher.getLostJobs().isEmpty());
+        assertEquals(2, dispatcher.getProgress().getFailed());
+    }
+
+    @Test(timeout=10000)
+    public void aJobThatFailsEveryAttemptIsLostAndTheRestCarryOn(){
+        dispatcher.setRetryPolicy(new RetryPolicy(2));
+        dispatcher.addJob(new TestJob("bad", 1).failing(2));
+        for(int i=0;i<10;i++)
+            dispatcher.addJob(new TestJob("j" + i, i));
+        assertTrue(dispatcher.start());
+        assertEquals(10, dispatcher.getFinishedJobs().size());
+        assertEquals(1, dispatcher.getLostJobs().size());
+        assertTrue(dispatcher.getLostJobs().containsKey("bad"));
+        assertNotNull(dispatcher.getError());
+    }
+
+    @Test(timeout=10000)
+    public void retriesWaitOutTheBackoff(){
+        dispatcher.setRetryPolicy(new RetryPolicy(3, 200, 200));
+        dispatcher.addJob(new TestJob("flaky", 1).failing(2));
+        long started = System.nanoTime();
+        assertFalse(dispatcher.start());
+        long millis = (System.nanoTime()-started)/1000000;
+        assertTrue("Took " + millis + "ms", millis>=400);
+    }
+
+    @Test(timeout=10000)
+    public void anAttemptThatTakesTooLongIsStopped(){
+        dispatcher.setRetryPolicy(new RetryPolicy(1, 0, 0, 100));
+        dispatcher.addJob(new TestJob("slow", 1, 5000));
+        dispatcher.addJob(new TestJob("quick", 1));
+        long started = System.nanoTime();
+        assertTrue(dispatcher.start());
+        long millis = (System.nanoTime()-started)/1000000;
+        assertTrue("Took " + millis + "ms", millis<5000);
+        assertTrue(dispatcher.getLostJobs().containsKey("slow"));
+        assertTrue(dispatcher.getFinishedJobs().containsKey("quick"));
+    }
+
+    @Test(timeout=10000)
+    public void aTimedOutJobIsRetried(){
+        dispatcher.setRetryPolicy(new RetryPolicy(2, 0, 0, 300));
+        dispatcher.addJob(new SlowOnce("slow-once"));
+        assertFalse(dispatcher.start());
+        assertTrue(dispatcher.getFinishedJobs().containsKey("slow-once"));
+    }
+
+    /**
+     * A job that is slow the first time it is run, and quick after.
+     */
+    private static class SlowOnce extends TestJob {
+        private static final long serialVersionUID = 1L;
+
+        SlowOnce(String id){
+            super(id, 1);
+        }
+
+        @Override
+        public void run(){
+            super.run();
+            if(TestJob.runs(getID())==1){
+                try{
+                    Thread.sleep(5000);
+                }
+                catch(InterruptedException e){
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+}
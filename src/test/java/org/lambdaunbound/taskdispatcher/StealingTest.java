@@ -0,0 +1,52 @@
+package org.lambdaunbound.taskdispatcher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.threaded.LocalDispatcher;
+
+/**
+ * Tests of idle runners taking back the jobs queued on busy ones.
+ * @author gg32
+ */
+public class StealingTest {
+
+    private LocalDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new LocalDispatcher<>(2);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void jobsQueuedBehindASlowJobAreStolen(){
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        dispatcher.addJobListener(new JobListener<TestJob>() {
+            @Override
+            public void jobFinished(TestJob job) {
+                order.add(job.getID());
+            }
+        });
+        dispatcher.setPrefetch(10);
+        dispatcher.addJob(new TestJob("slow", 1, 1500));
+        for(int i=0;i<21;i++)
+            dispatcher.addJob(new TestJob("quick" + i, i, 10));
+        assertFalse(dispatcher.start());
+        assertEquals(22, order.size());
+        //Without stealing about half of the quick jobs would wait for the slow one
+        assertEquals("slow", order.get(21));
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.lambdaunbound.taskdispatcher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A job for the tests, which doubles its value, optionally after sleeping,
+ * and may fail the first few times it is run.
+ * @author gg32
+ */
+public class TestJob implements Job {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * How many times each job has been run in this VM, by ID.
+     */
+    private static final ConcurrentMap<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final int value;
+    private final long sleep;
+    private int failures;
+    private int result;
+
+    /**
+     * Create a job that finishes at once.
+     * @param id The ID of the job.
+     * @param value The value to double.
+     */
+    public TestJob(String id, int value){
+        this(id, value, 0);
+    }
+
+    /**
+     * Create a job that sleeps before finishing.
+     * @param id The ID of the job.
+     * @param value The value to double.
+     * @param sleep How long to sleep for, in milliseconds.
+     */
+    public TestJob(String id, int value, long sleep){
+        this.id = id;
+        this.value = value;
+        this.sleep = sleep;
+    }
+
+    /**
+     * Have the job throw the first times it is run. Only counted on the copy
+     * of the job that is run, so is only of use with runners that do not copy
+     * their jobs.
+     * @param times The number of runs to fail.
+     * @return This job.
+     */
+    public TestJob failing(int times){
+        failures = times;
+        return this;
+    }
+
+    @Override
+    public String getID(){
+        return id;
+    }
+
+    @Override
+    public void run(){
+        AtomicInteger count = runs.get(id);
+        if(count==null){
+            runs.putIfAbsent(id, new AtomicInteger());
+            count = runs.get(id);
+        }
+        count.incrementAndGet();
+        if(sleep>0){
+            try{
+                Thread.sleep(sleep);
+            }
+            catch(InterruptedException e){
+                throw new RuntimeException("Interrupted", e);
+            }
+        }
+        if(failures>0){
+            failures--;
+            throw new IllegalStateException("Failed " + id);
+        }
+        result = value*2;
+    }
+
+    /**
+     * Get the doubled value, once run.
+     * @return The result, or 0 if the job has not been run.
+     */
+    public int getResult(){
+        return result;
+    }
+
+    /**
+     * Get how many times a job with the given ID has been run in this VM.
+     * @param id The ID of the job.
+     * @return The number of runs.
+     */
+    public static int runs(String id){
+        AtomicInteger count = runs.get(id);
+        return count==null ? 0 : count.get();
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.lambdaunbound.taskdispatcher.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of sending jobs to a ClusterStub in batches sized to their run time.
+ * @author gg32
+ */
+public class BatchingTest {
+
+    private Dispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception{
+        dispatcher = new Dispatcher();
+        Loopback loopback = new Loopback(1);
+        dispatcher.addTaskProgress(loopback);
+        dispatcher.setUp();
+        loopback.connect(dispatcher.getPort());
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=20000)
+    public void everyJobOfEachGenerationComesBack(){
+        for(int g=0;g<3;g++){
+            for(int i=0;i<2000;i++)
+                dispatcher.addJob(new TestJob("g" + g + "j" + i, i));
+            assertFalse(dispatcher.start());
+            Map<String, TestJob> finished = dispatcher.getFinishedJobs();
+            assertEquals(2000, finished.size());
+            for(int i=0;i<2000;i++)
+                assertEquals(i*2, finished.get("g" + g + "j" + i).getResult());
+            dispatcher.newGeneration();
+        }
+    }
+
+    @Test(timeout=20000)
+    public void shortJobsAreSentInLargerBatchesThanLongOnes(){
+        for(int i=0;i<2000;i++)
+            dispatcher.addJob(new TestJob("short" + i, i));
+        assertFalse(dispatcher.start());
+        int shortBatch = dispatcher.runner().batchSize();
+        dispatcher.newGeneration();
+        for(int i=0;i<20;i++)
+            dispatcher.addJob(new TestJob("long" + i, i, 50));
+        assertFalse(dispatcher.start());
+        int longBatch = dispatcher.runner().batchSize();
+        assertTrue(shortBatch + " against " + longBatch, shortBatch>longBatch);
+        assertTrue(longBatch>=1);
+    }
+
+    @Test(timeout=20000)
+    public void theBacklogFollowsTheMeasuredTimes(){
+        assertEquals(0, dispatcher.runner().getBacklog());
+        for(int i=0;i<500;i++)
+            dispatcher.addJob(new TestJob("timed" + i, i, 1));
+        assertFalse(dispatcher.start());
+        int backlog = dispatcher.runner().getBacklog();
+        assertTrue("Backlog " + backlog, backlog>=0&&backlog<=1024);
+    }
+
+    private static class Dispatcher extends ClusterDispatcher<TestJob> {
+
+        ClusterTaskRunner<TestJob> runner(){
+            List<ClusterTaskRunner<TestJob>> runners = taskRunners;
+            assertEquals(1, runners.size());
+            return runners.get(0);
+        }
+    }
+
+}
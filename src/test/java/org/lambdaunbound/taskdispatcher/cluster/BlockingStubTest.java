@@ -0,0 +1,71 @@
+package org.lambdaunbound.taskdispatcher.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of a ClusterStub running many jobs that spend their time waiting.
+ * @author gg32
+ */
+public class BlockingStubTest {
+
+    private ClusterDispatcher<Waiting> dispatcher;
+
+    @Before
+    public void setUp() throws Exception{
+        dispatcher = new ClusterDispatcher<>();
+        Loopback loopback = new Loopback(1, 8);
+        dispatcher.addTaskProgress(loopback);
+        dispatcher.setUp();
+        loopback.connect(dispatcher.getPort());
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=20000)
+    public void theStubRunsNoMoreThanItsBlockingJobsAtOnce(){
+        for(int i=0;i<64;i++)
+            dispatcher.addJob(new Waiting("stub-wait" + i, i));
+        assertFalse(dispatcher.start());
+        assertEquals(64, dispatcher.getFinishedJobs().size());
+        assertEquals(126, dispatcher.getFinishedJobs().get("stub-wait63").getResult());
+        assertTrue("Ran " + Waiting.most.get(), Waiting.most.get()<=8);
+        assertTrue("Ran " + Waiting.most.get(), Waiting.most.get()>1);
+    }
+
+    /**
+     * A job that waits, and records the most of its kind running at once.
+     */
+    static class Waiting extends TestJob {
+        private static final long serialVersionUID = 1L;
+        static final AtomicInteger running = new AtomicInteger();
+        static final AtomicInteger most = new AtomicInteger();
+
+        Waiting(String id, int value){
+            super(id, value, 20);
+        }
+
+        @Override
+        public void run(){
+            int now = running.incrementAndGet();
+            int was;
+            while((was = most.get())<now&&!most.compareAndSet(was, now));
+            try{
+                super.run();
+            }
+            finally{
+                running.decrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.lambdaunbound.taskdispatcher.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.AbstractTaskRunner;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of running jobs both on this machine and on ClusterStubs.
+ * @author gg32
+ */
+public class HybridDispatcherTest {
+
+    private Dispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception{
+        dispatcher = new Dispatcher();
+        dispatcher.setUp();
+        //Registered once the dispatcher is already listening
+        Loopback loopback = new Loopback(2);
+        dispatcher.addTaskProgress(loopback);
+        loopback.connect(dispatcher.getPort());
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=20000)
+    public void stubsConnectingAfterTheProgressIsAddedAreShown(){
+        //The loopback only connects once it has been shown every stub
+        assertEquals(3, dispatcher.runners().size());
+    }
+
+    @Test(timeout=20000)
+    public void jobsAreRunHereAndOnTheStubs(){
+        for(int g=0;g<2;g++){
+            for(int i=0;i<500;i++)
+                dispatcher.addJob(new TestJob("hybrid" + g + "-" + i, i, 2));
+            assertFalse(dispatcher.start());
+            assertEquals(500, dispatcher.getFinishedJobs().size());
+            for(int i=0;i<500;i++)
+                assertEquals(i*2, dispatcher.getFinishedJobs().get("hybrid" + g + "-" + i).getResult());
+            dispatcher.newGeneration();
+        }
+        int busy = 0;
+        for(AbstractTaskRunner<TestJob> runner : dispatcher.runners()){
+            if(runner.getProgress().getCompleted()>0)
+                busy++;
+        }
+        assertTrue("Only " + busy + " runners were used", busy>=2);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void localThreadsMustNotBeNegative(){
+        new HybridDispatcher<TestJob>(-1);
+    }
+
+    private static class Dispatcher extends HybridDispatcher<TestJob> {
+
+        Dispatcher(){
+            super(1);
+        }
+
+        List<AbstractTaskRunner<TestJob>> runners(){
+            return taskRunners;
+        }
+    }
+
+}
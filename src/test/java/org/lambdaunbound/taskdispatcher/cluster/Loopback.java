@@ -0,0 +1,94 @@
+package org.lambdaunbound.taskdispatcher.cluster;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.lambdaunbound.taskdispatcher.TaskProgress;
+
+/**
+ * Connects ClusterStubs running in this VM to a dispatcher over loopback, and
+ * waits until the dispatcher has taken each of them up. Must be added to the
+ * dispatcher as its TaskProgress.
+ * @author gg32
+ */
+public class Loopback implements TaskProgress {
+
+    private final int stubs;
+    private final int blockingJobs;
+    private final CountDownLatch connected;
+
+    /**
+     * Create a loopback for stubs that run one job per processing element.
+     * @param stubs The number of stubs to connect.
+     */
+    public Loopback(int stubs){
+        this(stubs, 0);
+    }
+
+    /**
+     * Create a loopback for stubs that run blocking jobs.
+     * @param stubs The number of stubs to connect.
+     * @param blockingJobs The number of jobs each stub runs at once, or 0 for
+     * one per processing element.
+     */
+    public Loopback(int stubs, int blockingJobs){
+        this.stubs = stubs;
+        this.blockingJobs = blockingJobs;
+        connected = new CountDownLatch(stubs);
+    }
+
+    /**
+     * Start the stubs, each on a thread of its own, and wait for the
+     * dispatcher to have a runner for each.
+     * @param port The port the dispatcher is listening on.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void connect(final int port) throws InterruptedException{
+        for(int i=0;i<stubs;i++){
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ClusterStub stub = new ClusterStub();
+                    stub.setBlockingJobs(blockingJobs);
+                    stub.setSocket("localhost", port);
+                    stub.start();
+                }
+            }, "Stub " + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        if(!connected.await(10, TimeUnit.SECONDS))
+            throw new IllegalStateException("The stubs did not connect");
+    }
+
+    @Override
+    public void setLimit(int max){
+    }
+
+    @Override
+    public void message(String description){
+    }
+
+    @Override
+    public void tick(){
+    }
+
+    @Override
+    public void tick(String message){
+    }
+
+    @Override
+    public void fail(String message){
+    }
+
+    @Override
+    public void setPort(int port){
+    }
+
+    @Override
+    public MachinePanel addRemoteHost(String hostname){
+        connected.countDown();
+        return null;
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.lambdaunbound.taskdispatcher.cluster;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of speculatively re-executing the last jobs of a generation on a
+ * second ClusterStub.
+ * @author gg32
+ */
+public class SpeculationTest {
+
+    private ClusterDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp() throws Exception{
+        dispatcher = new ClusterDispatcher<>();
+        Loopback loopback = new Loopback(2);
+        dispatcher.addTaskProgress(loopback);
+        dispatcher.setUp();
+        loopback.connect(dispatcher.getPort());
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=20000)
+    public void aStragglerIsOvertakenByItsCopy(){
+        dispatcher.setSpeculativeExecution(true);
+        for(int i=0;i<50;i++)
+            dispatcher.addJob(new Straggler("quick" + i, i, 0));
+        dispatcher.addJob(new Straggler("straggler", 7, 10000));
+        long started = System.nanoTime();
+        assertFalse(dispatcher.start());
+        long millis = (System.nanoTime()-started)/1000000;
+        assertTrue("Took " + millis + "ms", millis<8000);
+        assertEquals(51, dispatcher.getFinishedJobs().size());
+        assertEquals(14, dispatcher.getFinishedJobs().get("straggler").getResult());
+        assertTrue(TestJob.runs("straggler")>=2);
+    }
+
+    /**
+     * A job that may take far longer the first time it is run in this VM. The
+     * quick jobs are of the same class, as a ClusterTaskRunner expects every
+     * job to be.
+     */
+    private static class Straggler extends TestJob {
+
+        private static final long serialVersionUID = 1L;
+        private final long firstSleep;
+
+        Straggler(String id, int value, long firstSleep){
+            super(id, value, 5);
+            this.firstSleep = firstSleep;
+        }
+
+        @Override
+        public void run(){
+            boolean first = TestJob.runs(getID())==0;
+            super.run();
+            if(first&&firstSleep>0){
+                try{
+                    Thread.sleep(firstSleep);
+                }
+                catch(InterruptedException e){
+                }
+            }
+        }
+    }
+
+}
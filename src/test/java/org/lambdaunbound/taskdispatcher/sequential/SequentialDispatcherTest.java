@@ -0,0 +1,102 @@
+package org.lambdaunbound.taskdispatcher.sequential;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.JobContext;
+import org.lambdaunbound.taskdispatcher.JobFuture;
+import org.lambdaunbound.taskdispatcher.RetryPolicy;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of running every job on the thread that calls start.
+ * @author gg32
+ */
+public class SequentialDispatcherTest {
+
+    private SequentialDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new SequentialDispatcher<>();
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void everyJobIsRunOnTheCallingThread(){
+        for(int i=0;i<100;i++)
+            dispatcher.addJob(new Recorded("seq" + i, i));
+        assertFalse(dispatcher.start());
+        assertEquals(100, dispatcher.getFinishedJobs().size());
+        for(TestJob job : dispatcher.getFinishedJobs().values())
+            assertSame(Thread.currentThread(), ((Recorded)job).ranOn);
+        assertEquals(100, dispatcher.getProgress().getCompleted());
+    }
+
+    @Test(timeout=10000)
+    public void eachJobIsRunWithAContextOfItsOwn(){
+        dispatcher.addJob(new Recorded("seq-context", 1));
+        assertFalse(dispatcher.start());
+        assertEquals("seq-context", ((Recorded)dispatcher.getFinishedJobs().get("seq-context")).context);
+    }
+
+    @Test(timeout=10000)
+    public void failedJobsAreRetried(){
+        dispatcher.setRetryPolicy(new RetryPolicy(3));
+        JobFuture<TestJob> future = dispatcher.submit(new TestJob("seq-flaky", 2).failing(2));
+        dispatcher.addJob(new TestJob("seq-lost", 1).failing(3));
+        assertTrue(dispatcher.start());
+        assertTrue(future.isDone());
+        assertEquals(4, dispatcher.getFinishedJobs().get("seq-flaky").getResult());
+        assertTrue(dispatcher.getLostJobs().containsKey("seq-lost"));
+    }
+
+    @Test(timeout=10000)
+    public void jobsAreTakenFromASource(){
+        List<TestJob> jobs = new ArrayList<>();
+        for(int i=0;i<5;i++)
+            jobs.add(new Recorded("seq-source" + i, i));
+        dispatcher.addJob(new TestJob("seq-added", 7));
+        assertFalse(dispatcher.start(jobs.iterator()));
+        assertEquals(6, dispatcher.getFinishedJobs().size());
+        assertEquals(8, dispatcher.getFinishedJobs().get("seq-source4").getResult());
+        assertEquals(14, dispatcher.getFinishedJobs().get("seq-added").getResult());
+    }
+
+    @Test(timeout=10000)
+    public void anEmptySourceFinishesAtOnce(){
+        assertFalse(dispatcher.start(new ArrayList<TestJob>().iterator()));
+        assertTrue(dispatcher.getFinishedJobs().isEmpty());
+    }
+
+    /**
+     * A job that records the thread and context it was run with.
+     */
+    static class Recorded extends TestJob {
+        private static final long serialVersionUID = 1L;
+        transient Thread ranOn;
+        String context;
+
+        Recorded(String id, int value){
+            super(id, value);
+        }
+
+        @Override
+        public void run(){
+            ranOn = Thread.currentThread();
+            context = JobContext.current().getJobID();
+            super.run();
+        }
+    }
+
+}
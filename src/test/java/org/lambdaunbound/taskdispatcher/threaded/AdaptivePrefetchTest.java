@@ -0,0 +1,95 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.AbstractTaskDispatcher;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of giving runners as many extra jobs as they ask for.
+ * @author gg32
+ */
+public class AdaptivePrefetchTest {
+
+    private ThreadedDispatcher<TestJob> dispatcher;
+    private Backlogged runner;
+
+    @Before
+    public void setUp(){
+        dispatcher = new ThreadedDispatcher<TestJob>(){
+            @Override
+            public void setUp(){
+                runner = new Backlogged(this, 3);
+                runner.thread = new Thread(runner);
+                runner.thread.setDaemon(true);
+                runner.setUp();
+                taskRunners.add(runner);
+                runner.thread.start();
+            }
+        };
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void aRunnerIsGivenTheBacklogItAsksFor(){
+        for(int i=0;i<20;i++)
+            dispatcher.addJob(new TestJob("adapt" + i, i, 5));
+        assertFalse(dispatcher.start());
+        assertEquals(20, dispatcher.getFinishedJobs().size());
+        assertEquals(4, runner.mostQueued);
+    }
+
+    @Test(timeout=10000)
+    public void theBacklogIsIgnoredWhenNotAdapting(){
+        dispatcher.setAdaptivePrefetch(false);
+        for(int i=0;i<20;i++)
+            dispatcher.addJob(new TestJob("fixed" + i, i, 5));
+        assertFalse(dispatcher.start());
+        assertEquals(20, dispatcher.getFinishedJobs().size());
+        assertEquals(1, runner.mostQueued);
+    }
+
+    @Test(timeout=10000)
+    public void thePrefetchIsKeptWhenMoreThanTheBacklog(){
+        dispatcher.setPrefetch(5);
+        for(int i=0;i<20;i++)
+            dispatcher.addJob(new TestJob("prefetch" + i, i, 5));
+        assertFalse(dispatcher.start());
+        assertEquals(6, runner.mostQueued);
+    }
+
+    /**
+     * A runner that asks for a fixed backlog, and records the most jobs it
+     * has held at once.
+     */
+    private static class Backlogged extends ThreadedRunner<TestJob> {
+
+        private final int backlog;
+        volatile int mostQueued = 0;
+
+        Backlogged(AbstractTaskDispatcher<?,TestJob> atd, int backlog){
+            super(atd);
+            this.backlog = backlog;
+        }
+
+        @Override
+        public int getBacklog(){
+            return backlog;
+        }
+
+        @Override
+        public void addTask(TestJob job){
+            super.addTask(job);
+            mostQueued = Math.max(mostQueued, jobs.size());
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of running many jobs that spend their time waiting at once.
+ * @author gg32
+ */
+public class BlockingDispatcherTest {
+
+    private BlockingDispatcher<Waiting> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new BlockingDispatcher<>(20);
+        dispatcher.setUp();
+        Waiting.running.set(0);
+        Waiting.most.set(0);
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void manyMoreJobsThanProcessingElementsRunAtOnce(){
+        for(int i=0;i<100;i++)
+            dispatcher.addJob(new Waiting("wait" + i, i));
+        long started = System.nanoTime();
+        assertFalse(dispatcher.start());
+        long millis = (System.nanoTime()-started)/1000000;
+        assertEquals(100, dispatcher.getFinishedJobs().size());
+        assertEquals(198, dispatcher.getFinishedJobs().get("wait99").getResult());
+        assertTrue("Ran " + Waiting.most.get(), Waiting.most.get()<=20);
+        assertTrue("Ran " + Waiting.most.get(), Waiting.most.get()>1);
+        //One at a time would take 5 seconds
+        assertTrue("Took " + millis + "ms", millis<2500);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void atLeastOneJobMustRun(){
+        new BlockingDispatcher<TestJob>(0);
+    }
+
+    /**
+     * A job that waits, and records the most of its kind running at once.
+     */
+    static class Waiting extends TestJob {
+        private static final long serialVersionUID = 1L;
+        static final AtomicInteger running = new AtomicInteger();
+        static final AtomicInteger most = new AtomicInteger();
+
+        Waiting(String id, int value){
+            super(id, value, 50);
+        }
+
+        @Override
+        public void run(){
+            int now = running.incrementAndGet();
+            int was;
+            while((was = most.get())<now&&!most.compareAndSet(was, now));
+            try{
+                super.run();
+            }
+            finally{
+                running.decrementAndGet();
+            }
+        }
+    }
+
+}
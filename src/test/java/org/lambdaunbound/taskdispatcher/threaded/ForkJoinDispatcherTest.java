@@ -0,0 +1,114 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lambdaunbound.taskdispatcher.JobFuture;
+import org.lambdaunbound.taskdispatcher.RetryPolicy;
+import org.lambdaunbound.taskdispatcher.TestJob;
+
+/**
+ * Tests of running jobs in a ForkJoinPool.
+ * @author gg32
+ */
+public class ForkJoinDispatcherTest {
+
+    private ForkJoinDispatcher<TestJob> dispatcher;
+
+    @Before
+    public void setUp(){
+        dispatcher = new ForkJoinDispatcher<>(3);
+        dispatcher.setUp();
+    }
+
+    @After
+    public void tearDown(){
+        dispatcher.end();
+    }
+
+    @Test(timeout=10000)
+    public void everyJobOfEachGenerationIsRun(){
+        for(int g=0;g<3;g++){
+            for(int i=0;i<5000;i++)
+                dispatcher.addJob(new TestJob("fj" + g + "-" + i, i));
+            assertFalse(dispatcher.start());
+            assertEquals(5000, dispatcher.getFinishedJobs().size());
+            assertEquals(9998, dispatcher.getFinishedJobs().get("fj" + g + "-4999").getResult());
+            dispatcher.newGeneration();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void noMoreJobsRunAtOnceThanThePoolHasThreads(){
+        for(int i=0;i<30;i++)
+            dispatcher.addJob(new Counted("fj-counted" + i));
+        assertFalse(dispatcher.start());
+        assertEquals(30, dispatcher.getFinishedJobs().size());
+        assertTrue("Ran " + Counted.most.get(), Counted.most.get()<=3);
+    }
+
+    @Test(timeout=10000)
+    public void failedJobsAreRetried(){
+        dispatcher.setRetryPolicy(new RetryPolicy(2));
+        dispatcher.addJob(new TestJob("fj-flaky", 3).failing(1));
+        assertFalse(dispatcher.start());
+        assertEquals(6, dispatcher.getFinishedJobs().get("fj-flaky").getResult());
+    }
+
+    @Test(timeout=10000)
+    public void aRunningJobMayBeCancelled() throws InterruptedException{
+        final JobFuture<TestJob> future = dispatcher.submit(new TestJob("fj-cancel", 1, 5000));
+        Thread canceller = new Thread(){
+            @Override
+            public void run(){
+                try{
+                    Thread.sleep(100);
+                }
+                catch(InterruptedException e){
+                    return;
+                }
+                future.cancel(true);
+            }
+        };
+        canceller.start();
+        assertFalse(dispatcher.start());
+        canceller.join();
+        assertTrue(future.isCancelled());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void thereMustBeAThread(){
+        new ForkJoinDispatcher<TestJob>(0);
+    }
+
+    /**
+     * A job that records the most of its kind running at once.
+     */
+    private static class Counted extends TestJob {
+        private static final long serialVersionUID = 1L;
+        static final AtomicInteger running = new AtomicInteger();
+        static final AtomicInteger most = new AtomicInteger();
+
+        Counted(String id){
+            super(id, 1, 10);
+        }
+
+        @Override
+        public void run(){
+            int now = running.incrementAndGet();
+            int was;
+            while((was = most.get())<now&&!most.compareAndSet(was, now));
+            try{
+                super.run();
+            }
+            finally{
+                running.decrementAndGet();
+            }
+        }
+    }
+
+}
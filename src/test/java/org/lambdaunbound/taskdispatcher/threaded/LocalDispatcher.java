@@ -0,0 +1,35 @@
+package org.lambdaunbound.taskdispatcher.threaded;
+
+import org.lambdaunbound.taskdispatcher.Job;
+
+/**
+ * A ThreadedDispatcher with a fixed number of runners, whatever the number of
+ * processing elements of the machine running the tests.
+ * @param <J> The type of Job to be run.
+ * @author gg32
+ */
+public class LocalDispatcher<J extends Job> extends ThreadedDispatcher<J> {
+
+    private final int runners;
+
+    /**
+     * Create a dispatcher.
+     * @param runners The number of ThreadedRunners to set up.
+     */
+    public LocalDispatcher(int runners){
+        this.runners = runners;
+    }
+
+    @Override
+    public void setUp() {
+        for(int i=0;i<runners;i++){
+            ThreadedRunner<J> tr = new ThreadedRunner<>(this);
+            tr.thread = new Thread(tr);
+            tr.thread.setDaemon(true);
+            tr.setUp();
+            taskRunners.add(tr);
+            tr.thread.start();
+        }
+    }
+
+}